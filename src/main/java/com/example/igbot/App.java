@@ -2,6 +2,9 @@ package com.example.igbot;
 
 public class App {
     public static void main(String[] args) {
+        // Уровень логов (error/warn/info/debug/trace) задаётся до создания первого логгера; debug — пошаговый ход скролла
+        String level = System.getenv("IG_LOG_LEVEL");
+        if (level != null && !level.isBlank()) System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", level.trim().toLowerCase());
         String token = System.getenv("TELEGRAM_BOT_TOKEN");
         if (token == null || token.isBlank()) {
             System.err.println("Env TELEGRAM_BOT_TOKEN is required");
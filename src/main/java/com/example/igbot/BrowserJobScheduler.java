@@ -0,0 +1,274 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgBrowserPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Очередь задач, которым нужен браузер (/scrape, /login, /2fa). Команды бота только ставят задачу
+ * и сразу отвечают позицией в очереди и примерным временем ожидания; результат задача отправляет сама.
+ *
+ * Одновременно работает не больше IG_JOB_WORKERS задач (по умолчанию — размер пула браузеров).
+ * Из очереди первой берётся самая "короткая" задача — по числу followers+following из шапки профиля;
+ * чтобы большие аккаунты не ждали вечно, стоимость делится на (1 + минуты ожидания / IG_JOB_AGING_MIN).
+ * У чата одновременно может быть только одна задача; /cancel снимает её из очереди или прерывает.
+ * Выполняющаяся задача стоит на учёте в {@link ResourceGovernor}: дольше IG_JOB_TIMEOUT_MIN она прерывается,
+ * а если и через минуту после этого держит браузеры — они убиваются.
+ */
+public class BrowserJobScheduler {
+    private static final Logger log = LoggerFactory.getLogger(BrowserJobScheduler.class);
+
+    /** Стоимость задачи, размер аккаунта которой ещё не известен. */
+    public static final long UNKNOWN_COST = 1_000;
+
+    private static final long BASE_ESTIMATE_MS = 20_000;
+    private static final long KILL_GRACE_MS = 60_000;
+
+    /** Сообщить чату, что его задача остановлена по лимиту времени. */
+    public interface TimeoutListener {
+        void timedOut(long chatId, String label, long ranMs);
+    }
+
+    public static class Ticket {
+        public final int position;   // 0 — уже выполняется
+        public final long etaMs;     // примерное ожидание до старта
+
+        Ticket(int position, long etaMs) {
+            this.position = position;
+            this.etaMs = etaMs;
+        }
+    }
+
+    private static class Job {
+        final long chatId;
+        final String label;
+        final long cost;
+        final Runnable task;
+        final Runnable onCancel;
+        final long submittedAt = System.currentTimeMillis();
+        long startedAt;
+        Thread worker;
+        volatile boolean cancelled;
+        boolean timedOut;
+
+        Job(long chatId, String label, long cost, Runnable task, Runnable onCancel) {
+            this.chatId = chatId; this.label = label; this.cost = cost; this.task = task; this.onCancel = onCancel;
+        }
+    }
+
+    private final int workers;
+    private final long agingMs;
+    private final ResourceGovernor governor;
+    private final TimeoutListener onTimeout;
+    private final List<Job> queue = new ArrayList<>();
+    private final Map<Long, Job> byChat = new HashMap<>();
+    private final List<Job> running = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private double msPerName = 40; // уточняется по завершённым задачам
+    private boolean closed;
+
+    public BrowserJobScheduler(int workers, long agingMs, ResourceGovernor governor, TimeoutListener onTimeout) {
+        this.workers = Math.max(1, workers);
+        this.agingMs = Math.max(1, agingMs);
+        this.governor = governor;
+        this.onTimeout = onTimeout;
+        for (int i = 0; i < this.workers; i++) {
+            Thread t = new Thread(this::workLoop, "browser-job-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+    }
+
+    public static BrowserJobScheduler fromEnv(int defaultWorkers, ResourceGovernor governor, TimeoutListener onTimeout) {
+        return new BrowserJobScheduler(getenvInt("IG_JOB_WORKERS", defaultWorkers), getenvInt("IG_JOB_AGING_MIN", 5) * 60_000L, governor, onTimeout);
+    }
+
+    /**
+     * Поставить задачу чата в очередь. onCancel вызывается, если задачу отменили до или во время выполнения.
+     * Возвращает null, если у чата уже есть задача.
+     */
+    public synchronized Ticket submit(long chatId, String label, long cost, Runnable task, Runnable onCancel) {
+        if (closed) throw new IllegalStateException("Очередь задач остановлена");
+        if (byChat.containsKey(chatId)) return null;
+        Job job = new Job(chatId, label, Math.max(0, cost), task, onCancel);
+        queue.add(job);
+        byChat.put(chatId, job);
+        notifyAll();
+        return ticketOf(job);
+    }
+
+    public synchronized boolean hasJob(long chatId) {
+        return byChat.containsKey(chatId);
+    }
+
+    /** Отменить задачу чата: из очереди она просто убирается, выполняющаяся прерывается. */
+    public boolean cancel(long chatId) {
+        Job job;
+        boolean wasQueued;
+        synchronized (this) {
+            job = byChat.get(chatId);
+            if (job == null || job.cancelled) return false;
+            job.cancelled = true;
+            wasQueued = queue.remove(job);
+            if (wasQueued) byChat.remove(chatId);
+            else if (job.worker != null) job.worker.interrupt();
+        }
+        if (wasQueued) runQuietly(job.onCancel);
+        return true;
+    }
+
+    /** Текущее положение задачи чата; null, если задачи нет. */
+    public synchronized Ticket status(long chatId) {
+        Job job = byChat.get(chatId);
+        return job == null ? null : ticketOf(job);
+    }
+
+    /** Остановлена ли выполняющаяся задача чата по лимиту времени, а не через /cancel. */
+    public synchronized boolean timedOut(long chatId) {
+        Job job = byChat.get(chatId);
+        return job != null && job.timedOut;
+    }
+
+    public synchronized String stats() {
+        return String.format(Locale.ROOT, "Очередь браузерных задач: выполняется %d/%d, ждут %d", running.size(), workers, queue.size());
+    }
+
+    public void shutdown() {
+        List<Job> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+            for (Job j : running) if (j.worker != null) j.worker.interrupt();
+            notifyAll();
+        }
+        for (Job j : dropped) runQuietly(j.onCancel);
+    }
+
+    private void workLoop() {
+        while (true) {
+            Job job;
+            synchronized (this) {
+                while (!closed && queue.isEmpty()) {
+                    try { wait(); } catch (InterruptedException e) { if (closed) return; }
+                }
+                if (closed) return;
+                job = pickNext(System.currentTimeMillis());
+                queue.remove(job);
+                job.worker = Thread.currentThread();
+                job.startedAt = System.currentTimeMillis();
+                running.add(job);
+            }
+            ResourceGovernor.Resource tracked = governor == null ? null : governor.register(ResourceGovernor.Kind.JOB, job.chatId, job.label,
+                    governor.jobBudgetMs(), () -> timeOut(job), () -> IgBrowserPool.shared().rssOf(job));
+            // Браузеры, которые арендует задача, помечаются ею — по этой метке их можно найти и убить
+            IgBrowserPool.setOwner(job);
+            try {
+                job.task.run();
+            } catch (Throwable t) {
+                log.warn("{} failed", job.label, t);
+            } finally {
+                IgBrowserPool.setOwner(null);
+                if (governor != null) governor.release(tracked);
+                boolean cancelled;
+                synchronized (this) {
+                    running.remove(job);
+                    byChat.remove(job.chatId);
+                    job.worker = null;
+                    cancelled = job.cancelled && !job.timedOut; // об остановке по лимиту чат уже знает
+                    if (!job.cancelled && job.cost > 0) learn(job, System.currentTimeMillis() - job.startedAt);
+                }
+                // Сбросить прерывание, чтобы оно не досталось следующей задаче этого потока
+                Thread.interrupted();
+                if (cancelled) runQuietly(job.onCancel);
+            }
+        }
+    }
+
+    // Задача вышла за лимит времени: прерываем, как /cancel; не помогло за KILL_GRACE_MS — убиваем её браузеры.
+    // Вызывается из ResourceGovernor в отдельном потоке, поэтому может ждать.
+    private void timeOut(Job job) {
+        long ranMs;
+        synchronized (this) {
+            if (!running.contains(job)) return;
+            ranMs = System.currentTimeMillis() - job.startedAt;
+            if (!job.cancelled) {
+                job.cancelled = true;
+                job.timedOut = true;
+                job.worker.interrupt();
+            }
+        }
+        log.warn("{} of chat {} exceeded its time budget, interrupting", job.label, job.chatId);
+        if (job.timedOut && onTimeout != null) runQuietly(() -> onTimeout.timedOut(job.chatId, job.label, ranMs));
+        try {
+            Thread.sleep(KILL_GRACE_MS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (IgBrowserPool.shared().hasLeases(job)) {
+            log.warn("{} of chat {} ignored the interrupt, killed {} browser(s)", job.label, job.chatId, IgBrowserPool.shared().kill(job));
+        }
+    }
+
+    // Кратчайшая задача с поправкой на ожидание; при равенстве — поставленная раньше
+    private Job pickNext(long now) {
+        Job best = null;
+        double bestScore = 0;
+        for (Job j : queue) {
+            double score = effectiveCost(j, now);
+            if (best == null || score < bestScore) {
+                best = j;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private double effectiveCost(Job j, long now) {
+        return j.cost / (1.0 + (now - j.submittedAt) / (double) agingMs);
+    }
+
+    private Ticket ticketOf(Job job) {
+        long now = System.currentTimeMillis();
+        if (running.contains(job)) return new Ticket(0, 0);
+        List<Job> order = new ArrayList<>(queue);
+        order.sort(Comparator.comparingDouble((Job j) -> effectiveCost(j, now)).thenComparingLong(j -> j.submittedAt));
+        // Работа впереди: остаток выполняющихся задач и задачи очереди до нашей, поровну на всех воркеров
+        long ahead = 0;
+        for (Job r : running) ahead += Math.max(0, estimateMs(r) - (now - r.startedAt));
+        int position = 1;
+        for (Job j : order) {
+            if (j == job) break;
+            ahead += estimateMs(j);
+            position++;
+        }
+        long eta = running.size() < workers && position <= workers - running.size() ? 0 : ahead / workers;
+        return new Ticket(position, eta);
+    }
+
+    private long estimateMs(Job j) {
+        return BASE_ESTIMATE_MS + (long) (j.cost * msPerName);
+    }
+
+    private void learn(Job job, long elapsedMs) {
+        double sample = Math.max(0, elapsedMs - BASE_ESTIMATE_MS) / (double) job.cost;
+        msPerName = msPerName * 0.8 + sample * 0.2;
+    }
+
+    private static void runQuietly(Runnable r) {
+        if (r == null) return;
+        try { r.run(); } catch (Exception ignored) {}
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.igbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Последовательные "почтовые ящики" по чатам: действия одного чата выполняются строго по одному
+ * и в порядке поступления, а разные чаты — параллельно, каждый на своём виртуальном потоке.
+ * Всё, что трогает сессию чата (апдейты и результаты браузерных задач), идёт через его ящик,
+ * поэтому сессии не нужна синхронизация.
+ */
+public class ChatDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(ChatDispatcher.class);
+
+    private static class Mailbox {
+        final long chatId;
+        final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        boolean retired; // под локом ящика: снят с карты, новые действия идут в новый ящик
+
+        Mailbox(long chatId) { this.chatId = chatId; }
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public void post(long chatId, Runnable action) {
+        while (true) {
+            Mailbox box = mailboxes.computeIfAbsent(chatId, Mailbox::new);
+            synchronized (box) {
+                if (box.retired) continue; // ящик как раз опустел и снят — берём свежий
+                box.queue.add(action);
+            }
+            schedule(box);
+            return;
+        }
+    }
+
+    // Сколько ящиков сейчас в карте; для тестов
+    int mailboxCount() {
+        return mailboxes.size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try { executor.awaitTermination(5, TimeUnit.SECONDS); } catch (InterruptedException ignored) {}
+    }
+
+    private void schedule(Mailbox box) {
+        if (!box.scheduled.compareAndSet(false, true)) return; // ящик уже разбирается
+        try {
+            executor.execute(() -> drain(box));
+        } catch (Exception e) {
+            box.scheduled.set(false); // executor остановлен
+        }
+    }
+
+    private void drain(Mailbox box) {
+        Runnable action;
+        while ((action = box.queue.poll()) != null) {
+            try {
+                action.run();
+            } catch (Throwable t) {
+                log.warn("chat action failed", t);
+            }
+        }
+        box.scheduled.set(false);
+        // Пустой и никем не разбираемый ящик снимаем, чтобы карта не росла с каждым чатом
+        synchronized (box) {
+            if (box.queue.isEmpty() && !box.scheduled.get()) {
+                if (mailboxes.remove(box.chatId, box)) box.retired = true;
+                return;
+            }
+        }
+        // Действие могло прийти между последним poll и сбросом флага
+        schedule(box);
+    }
+}
@@ -1,10 +1,25 @@
 package com.example.igbot;
 
-import java.text.Normalizer;
+import com.example.igbot.util.UsernameCodec;
+import com.example.igbot.util.UsernameSet;
+
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+/**
+ * Сравнение списков followers/following. Оба списка нормализуются в отсортированные массивы без повторов,
+ * после чего один проход слиянием раскладывает имена по трём результатам — уже в нужном порядке.
+ * Нормализованные имена состоят из строчных a-z, цифр, '.' и '_', поэтому обычный порядок строк
+ * совпадает с CASE_INSENSITIVE_ORDER. Для очень больших списков сортировка и слияние идут на fork-join пуле.
+ */
 public class MutualsService {
+    /** С какого суммарного размера списков compute переключается на параллельный вариант. */
+    static final int PARALLEL_THRESHOLD = 500_000;
+
+    // Меньше этого кусок слияния не дробится: накладные расходы задач съедят выигрыш
+    private static final int MIN_CHUNK = 64 * 1024;
+
     public static class Result {
         public final List<String> mutuals;
         public final List<String> notFollowingBack;   // you follow them, they don't follow you
@@ -18,33 +33,114 @@ public class MutualsService {
     }
 
     public static Result compute(Set<String> followers, Set<String> following) {
-        // Normalize usernames robustly before comparisons
-        Set<String> followersCI = followers.stream()
-                .map(MutualsService::normalize)
-                .filter(s -> !s.isEmpty())
-                .collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
-        Set<String> followingCI = following.stream()
-                .map(MutualsService::normalize)
-                .filter(s -> !s.isEmpty())
-                .collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
-
-        List<String> mutuals = followersCI.stream().filter(followingCI::contains).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
-        List<String> notFollowingBack = followingCI.stream().filter(u -> !followersCI.contains(u)).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
-        List<String> notFollowedByYou = followersCI.stream().filter(u -> !followingCI.contains(u)).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
-        return new Result(mutuals, notFollowingBack, notFollowedByYou);
+        if ((long) followers.size() + following.size() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return computeParallel(followers, following);
+        }
+        return merge(prepare(followers, false), prepare(following, false));
+    }
+
+    /** То же, что compute, но нормализация, сортировка и слияние по кускам выполняются параллельно. */
+    public static Result computeParallel(Set<String> followers, Set<String> following) {
+        String[] a = prepare(followers, true);
+        String[] b = prepare(following, true);
+        int parts = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, a.length / MIN_CHUNK);
+        if (parts < 2 || b.length == 0) return merge(a, b);
+
+        // Границы кусков — имена из followers; следующие за ними имена following ищутся бинарным поиском,
+        // так что каждый кусок сливается независимо, а результаты просто склеиваются по порядку
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(parts);
+        int fromA = 0, fromB = 0;
+        for (int p = 1; p <= parts; p++) {
+            int toA = p == parts ? a.length : (int) ((long) a.length * p / parts);
+            int toB = p == parts ? b.length : lowerBound(b, fromB, a[toA]);
+            int fa = fromA, ta = toA, fb = fromB, tb = toB;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> mergeRange(a, fa, ta, b, fb, tb)));
+            fromA = toA;
+            fromB = toB;
+        }
+        List<Chunk> chunks = new ArrayList<>(parts);
+        for (ForkJoinTask<Chunk> t : tasks) chunks.add(t.join());
+
+        int m = 0, nb = 0, na = 0;
+        for (Chunk c : chunks) { m += c.mutuals; nb += c.onlyB; na += c.onlyA; }
+        String[] mutuals = new String[m], onlyB = new String[nb], onlyA = new String[na];
+        m = nb = na = 0;
+        for (Chunk c : chunks) {
+            System.arraycopy(c.out, 0, mutuals, m, c.mutuals);
+            System.arraycopy(c.out, c.mutuals, onlyB, nb, c.onlyB);
+            System.arraycopy(c.out, c.mutuals + c.onlyB, onlyA, na, c.onlyA);
+            m += c.mutuals; nb += c.onlyB; na += c.onlyA;
+        }
+        return new Result(Arrays.asList(mutuals), Arrays.asList(onlyB), Arrays.asList(onlyA));
+    }
+
+    private static Result merge(String[] a, String[] b) {
+        Chunk c = mergeRange(a, 0, a.length, b, 0, b.length);
+        return new Result(
+                Arrays.asList(Arrays.copyOfRange(c.out, 0, c.mutuals)),
+                Arrays.asList(Arrays.copyOfRange(c.out, c.mutuals, c.mutuals + c.onlyB)),
+                Arrays.asList(Arrays.copyOfRange(c.out, c.mutuals + c.onlyB, c.mutuals + c.onlyB + c.onlyA)));
+    }
+
+    // Результат слияния куска: в out подряд лежат взаимные, затем только из b, затем только из a
+    private static class Chunk {
+        String[] out;
+        int mutuals, onlyB, onlyA;
+    }
+
+    private static Chunk mergeRange(String[] a, int i, int endA, String[] b, int j, int endB) {
+        int lenA = endA - i, lenB = endB - j;
+        String[] mutuals = new String[Math.min(lenA, lenB)];
+        String[] onlyA = new String[lenA];
+        String[] onlyB = new String[lenB];
+        int m = 0, na = 0, nb = 0;
+        while (i < endA && j < endB) {
+            int cmp = a[i].compareTo(b[j]);
+            if (cmp == 0) { mutuals[m++] = a[i++]; j++; }
+            else if (cmp < 0) onlyA[na++] = a[i++];
+            else onlyB[nb++] = b[j++];
+        }
+        while (i < endA) onlyA[na++] = a[i++];
+        while (j < endB) onlyB[nb++] = b[j++];
+
+        Chunk c = new Chunk();
+        c.out = new String[m + nb + na];
+        System.arraycopy(mutuals, 0, c.out, 0, m);
+        System.arraycopy(onlyB, 0, c.out, m, nb);
+        System.arraycopy(onlyA, 0, c.out, m + nb, na);
+        c.mutuals = m;
+        c.onlyB = nb;
+        c.onlyA = na;
+        return c;
+    }
+
+    // Нормализовать, отсортировать и убрать повторы (разные написания могут дать одно имя); пустые отбрасываются
+    private static String[] prepare(Set<String> names, boolean parallel) {
+        if (names instanceof UsernameSet u) return u.toArray(new String[0]); // уже нормализован и отсортирован
+        String[] arr = names.toArray(new String[0]);
+        if (parallel) Arrays.parallelSetAll(arr, k -> normalize(arr[k]));
+        else for (int k = 0; k < arr.length; k++) arr[k] = normalize(arr[k]);
+        if (parallel) Arrays.parallelSort(arr);
+        else Arrays.sort(arr);
+        int n = 0;
+        for (String s : arr) {
+            if (s.isEmpty() || (n > 0 && s.equals(arr[n - 1]))) continue;
+            arr[n++] = s;
+        }
+        return n == arr.length ? arr : Arrays.copyOf(arr, n);
+    }
+
+    private static int lowerBound(String[] arr, int from, String key) {
+        int lo = from, hi = arr.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arr[mid].compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
     }
 
     private static String normalize(String s) {
-        if (s == null) return "";
-        String t = s;
-        try { t = Normalizer.normalize(t, Normalizer.Form.NFKC); } catch (Exception ignored) {}
-        // remove zero-width and spaces
-        t = t.replaceAll("[\\u200B-\\u200D\\uFEFF]", "");
-        t = t.replace(" ", "");
-        if (t.startsWith("@")) t = t.substring(1);
-        t = t.toLowerCase(Locale.ROOT);
-        // keep only allowed chars
-        t = t.replaceAll("[^a-z0-9._]", "");
-        return t;
+        return UsernameCodec.normalize(s);
     }
 }
@@ -0,0 +1,179 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgBrowserPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Учёт живых браузерных ресурсов: у каждого есть владелец (чат), срок и способ освобождения.
+ * Браузер, ждущий кода 2FA, держит Chromium и место в пуле, пока пользователь не ответит, поэтому таких
+ * одновременно не больше IG_2FA_MAX_PENDING и не больше размера пула без одного — хотя бы один браузер
+ * остаётся задачам (при пуле из одного браузера ожидание всё же разрешено, иначе вход с 2FA невозможен).
+ * Через IG_2FA_TIMEOUT_MIN ожидания закрываются.
+ * Браузерная задача дольше IG_JOB_TIMEOUT_MIN прерывается, а если не завершилась и после этого — её браузеры
+ * убиваются (см. {@link BrowserJobScheduler}). По истечении срока запись снимается и вызывается reclaim;
+ * кто первым снял запись — через {@link #release} или по сроку — тот и распоряжается ресурсом.
+ */
+public class ResourceGovernor {
+    private static final Logger log = LoggerFactory.getLogger(ResourceGovernor.class);
+
+    public enum Kind {
+        LOGIN_2FA("Ожидают код 2FA"),
+        JOB("Браузерные задачи");
+
+        final String title;
+
+        Kind(String title) { this.title = title; }
+    }
+
+    public static final class Resource {
+        public final Kind kind;
+        public final long chatId;
+        public final String label;
+        public final long createdAt = System.currentTimeMillis();
+        final long deadline;
+        final Runnable reclaim;
+        final LongSupplier memory; // байты; -1 — неизвестно
+
+        Resource(Kind kind, long chatId, String label, long deadline, Runnable reclaim, LongSupplier memory) {
+            this.kind = kind; this.chatId = chatId; this.label = label;
+            this.deadline = deadline; this.reclaim = reclaim; this.memory = memory;
+        }
+    }
+
+    private final int maxPending2fa;
+    private final long twoFaTtlMs;
+    private final long jobBudgetMs;
+    private final List<Resource> live = new ArrayList<>();
+    private Thread loop;
+    private boolean closed;
+
+    public ResourceGovernor(int maxPending2fa, long twoFaTtlMs, long jobBudgetMs) {
+        this.maxPending2fa = Math.max(1, maxPending2fa);
+        this.twoFaTtlMs = Math.max(60_000, twoFaTtlMs);
+        this.jobBudgetMs = Math.max(60_000, jobBudgetMs);
+    }
+
+    public static ResourceGovernor fromEnv(int poolSize) {
+        return new ResourceGovernor(Math.min(getenvInt("IG_2FA_MAX_PENDING", 2), poolSize - 1),
+                getenvInt("IG_2FA_TIMEOUT_MIN", 5) * 60_000L,
+                getenvInt("IG_JOB_TIMEOUT_MIN", 120) * 60_000L);
+    }
+
+    public synchronized void start() {
+        loop = Thread.ofVirtual().name("resource-governor").start(this::runLoop);
+    }
+
+    public long twoFaTtlMs() { return twoFaTtlMs; }
+
+    public long jobBudgetMs() { return jobBudgetMs; }
+
+    /** Есть ли место ещё для одного ожидания 2FA. */
+    public synchronized boolean canPark2fa() {
+        return count(Kind.LOGIN_2FA) < maxPending2fa;
+    }
+
+    /**
+     * Взять ресурс на учёт со сроком ttlMs. Для ожиданий 2FA возвращает null, если лимит уже исчерпан —
+     * тогда ресурс надо освободить самому.
+     */
+    public synchronized Resource register(Kind kind, long chatId, String label, long ttlMs, Runnable reclaim, LongSupplier memory) {
+        if (closed) return null;
+        if (kind == Kind.LOGIN_2FA && count(Kind.LOGIN_2FA) >= maxPending2fa) return null;
+        Resource r = new Resource(kind, chatId, label, System.currentTimeMillis() + ttlMs, reclaim, memory);
+        live.add(r);
+        notifyAll();
+        return r;
+    }
+
+    /** Снять ресурс с учёта; false — его уже забрали по сроку (и reclaim уже вызван или будет вызван). */
+    public synchronized boolean release(Resource r) {
+        return r != null && live.remove(r);
+    }
+
+    /** Текст для /admin resources. */
+    public String report() {
+        List<Resource> copy;
+        synchronized (this) { copy = new ArrayList<>(live); }
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (Kind k : Kind.values()) {
+            List<Resource> mine = copy.stream().filter(r -> r.kind == k).sorted(Comparator.comparingLong(r -> r.deadline)).toList();
+            sb.append(k.title).append(": ").append(mine.size());
+            if (k == Kind.LOGIN_2FA) sb.append("/").append(maxPending2fa);
+            sb.append("\n");
+            for (Resource r : mine) {
+                long mem;
+                try { mem = r.memory == null ? -1 : r.memory.getAsLong(); } catch (Exception e) { mem = -1; }
+                sb.append(String.format(Locale.ROOT, "  чат %d — %s, %d мин, срок через %d мин, %s%n", r.chatId, r.label,
+                        (now - r.createdAt) / 60_000, Math.max(0, (r.deadline - now + 59_999) / 60_000), IgBrowserPool.formatMb(mem)));
+            }
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (loop != null) loop.interrupt();
+    }
+
+    private void runLoop() {
+        while (true) {
+            List<Resource> expired = new ArrayList<>();
+            synchronized (this) {
+                if (closed) return;
+                long now = System.currentTimeMillis();
+                long next = Long.MAX_VALUE;
+                for (Iterator<Resource> it = live.iterator(); it.hasNext(); ) {
+                    Resource r = it.next();
+                    if (r.deadline <= now) {
+                        it.remove();
+                        expired.add(r);
+                    } else {
+                        next = Math.min(next, r.deadline);
+                    }
+                }
+                if (expired.isEmpty()) {
+                    try {
+                        wait(Math.max(1_000, Math.min(60_000, next - now)));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            // Освобождение может ждать браузер или драйвер — не задерживаем остальные сроки
+            for (Resource r : expired) {
+                log.info("reclaiming {} of chat {}: {}", r.kind, r.chatId, r.label);
+                Thread.ofVirtual().name("reclaim-" + r.chatId).start(() -> {
+                    try {
+                        r.reclaim.run();
+                    } catch (Exception e) {
+                        log.warn("reclaim {} failed", r.label, e);
+                    }
+                });
+            }
+        }
+    }
+
+    private int count(Kind kind) {
+        int n = 0;
+        for (Resource r : live) if (r.kind == kind) n++;
+        return n;
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
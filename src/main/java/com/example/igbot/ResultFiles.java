@@ -0,0 +1,113 @@
+package com.example.igbot;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Файлы с результатом сравнения, собранные сразу в память для SendDocument(byte[]):
+ * без склейки списка в одну строку и без временных файлов на диске.
+ * Архив results.zip содержит три .txt, общий results.csv (username,category) и results.json.
+ */
+public final class ResultFiles {
+    public static final String MUTUALS = "mutuals";
+    public static final String NOT_FOLLOWING_BACK = "not_following_back";
+    public static final String NOT_FOLLOWED_BY_YOU = "not_followed_by_you";
+
+    private ResultFiles() {}
+
+    /** Примерный размер трёх .txt в байтах — по нему выбирается, слать ли архив. */
+    public static long textBytes(MutualsService.Result r) {
+        return textBytes(r.mutuals) + textBytes(r.notFollowingBack) + textBytes(r.notFollowedByYou);
+    }
+
+    /** Список по одному username в строке. */
+    public static byte[] text(List<String> list) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, textBytes(list)));
+        try {
+            writeLines(out, list);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream не бросает
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] zip(MutualsService.Result r) {
+        // Сжатый размер заранее неизвестен; треть от текста — разумная стартовая ёмкость буфера
+        ByteArrayOutputStream buf = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, textBytes(r) / 3 + 1024));
+        try (ZipOutputStream zip = new ZipOutputStream(buf, StandardCharsets.UTF_8)) {
+            putText(zip, MUTUALS, r.mutuals);
+            putText(zip, NOT_FOLLOWING_BACK, r.notFollowingBack);
+            putText(zip, NOT_FOLLOWED_BY_YOU, r.notFollowedByYou);
+
+            zip.putNextEntry(new ZipEntry("results.csv"));
+            zip.write("username,category\n".getBytes(StandardCharsets.US_ASCII));
+            writeCsv(zip, r.mutuals, MUTUALS);
+            writeCsv(zip, r.notFollowingBack, NOT_FOLLOWING_BACK);
+            writeCsv(zip, r.notFollowedByYou, NOT_FOLLOWED_BY_YOU);
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("results.json"));
+            JsonWriter json = new JsonWriter(new OutputStreamWriter(nonClosing(zip), StandardCharsets.UTF_8));
+            json.beginObject();
+            writeJsonArray(json, MUTUALS, r.mutuals);
+            writeJsonArray(json, NOT_FOLLOWING_BACK, r.notFollowingBack);
+            writeJsonArray(json, NOT_FOLLOWED_BY_YOU, r.notFollowedByYou);
+            json.endObject();
+            json.close(); // сбрасывает writer, сам zip остаётся открытым
+            zip.closeEntry();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    private static long textBytes(List<String> list) {
+        long n = 0;
+        for (String u : list) n += u.length() + 1; // usernames — ASCII
+        return n;
+    }
+
+    private static void putText(ZipOutputStream zip, String name, List<String> list) throws IOException {
+        zip.putNextEntry(new ZipEntry(name + ".txt"));
+        writeLines(zip, list);
+        zip.closeEntry();
+    }
+
+    private static void writeLines(OutputStream out, List<String> list) throws IOException {
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) out.write('\n');
+            out.write(list.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeCsv(OutputStream out, List<String> list, String category) throws IOException {
+        byte[] suffix = ("," + category + "\n").getBytes(StandardCharsets.US_ASCII);
+        for (String u : list) {
+            out.write(u.getBytes(StandardCharsets.UTF_8));
+            out.write(suffix);
+        }
+    }
+
+    private static void writeJsonArray(JsonWriter json, String name, List<String> list) throws IOException {
+        json.name(name).beginArray();
+        for (String u : list) json.value(u);
+        json.endArray();
+    }
+
+    private static OutputStream nonClosing(OutputStream out) {
+        return new OutputStream() {
+            @Override public void write(int b) throws IOException { out.write(b); }
+            @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+            @Override public void flush() throws IOException { out.flush(); }
+            @Override public void close() throws IOException { out.flush(); }
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgPlaywrightScraper;
+import com.example.igbot.util.UsernameCodec;
+import com.example.igbot.util.UsernameSet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш результатов /scrape по чату и username цели: повторный запрос того же аккаунта из того же чата
+ * в пределах TTL отвечает без запуска браузера. Другому чату запись не выдаётся — списки собраны
+ * чужим входом (в том числе списки закрытых аккаунтов). Память ограничена суммарным числом usernames во всех записях,
+ * вытесняются давно не использованные записи (LRU). Если задан каталог, вытесненные записи
+ * сбрасываются на диск и поднимаются оттуда при следующем обращении (пока не истёк TTL).
+ *
+ * Настройки (env): IG_CACHE_TTL_MIN (по умолчанию 30, 0 — кэш выключен), IG_CACHE_MAX_NAMES (по умолчанию 1000000),
+ * IG_CACHE_DIR (не задан — без сброса на диск).
+ */
+public class ScrapeCache {
+    public static class Entry {
+        public final IgPlaywrightScraper.Pair pair;
+        public final long createdAt;
+
+        Entry(IgPlaywrightScraper.Pair pair, long createdAt) {
+            this.pair = pair;
+            this.createdAt = createdAt;
+        }
+
+        int weight() {
+            return pair.followers.size() + pair.following.size();
+        }
+    }
+
+    private final long ttlMs;
+    private final long maxNames;
+    private final Path spillDir;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ScrapeCache(long ttlMs, long maxNames, Path spillDir) {
+        this.ttlMs = ttlMs;
+        this.maxNames = maxNames;
+        this.spillDir = spillDir;
+    }
+
+    public static ScrapeCache fromEnv() {
+        long ttlMin = getenvLong("IG_CACHE_TTL_MIN", 30);
+        long maxNames = getenvLong("IG_CACHE_MAX_NAMES", 1_000_000);
+        String dir = System.getenv("IG_CACHE_DIR");
+        return new ScrapeCache(ttlMin * 60_000L, maxNames, dir == null || dir.isBlank() ? null : Paths.get(dir));
+    }
+
+    public Entry get(long chatId, String username) {
+        if (ttlMs <= 0) return null;
+        String key = key(chatId, username);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                if (now - e.createdAt < ttlMs) {
+                    hits.incrementAndGet();
+                    return e;
+                }
+                remove(key);
+            }
+        }
+        Entry fromDisk = readSpill(key, now);
+        if (fromDisk != null) {
+            diskHits.incrementAndGet();
+            synchronized (this) { insert(key, fromDisk); }
+            return fromDisk;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(long chatId, String username, IgPlaywrightScraper.Pair pair) {
+        if (ttlMs <= 0 || pair == null) return;
+        IgPlaywrightScraper.Pair copy = new IgPlaywrightScraper.Pair(UsernameSet.of(pair.followers), UsernameSet.of(pair.following));
+        synchronized (this) { insert(key(chatId, username), new Entry(copy, System.currentTimeMillis())); }
+    }
+
+    public String stats() {
+        synchronized (this) {
+            return String.format(Locale.ROOT,
+                    "Кэш результатов: записей %d, usernames %d/%d\nhits %d (с диска %d), misses %d, evictions %d",
+                    entries.size(), weight, maxNames, hits.get() + diskHits.get(), diskHits.get(), misses.get(), evictions.get());
+        }
+    }
+
+    private void insert(String key, Entry e) {
+        remove(key);
+        entries.put(key, e);
+        weight += e.weight();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxNames && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key) && entries.size() == 1) break; // одна запись больше лимита — держим её
+            it.remove();
+            weight -= eldest.getValue().weight();
+            evictions.incrementAndGet();
+            spill(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) weight -= old.weight();
+    }
+
+    // Формат файла: "T <createdMs>", затем "F <follower>" и "G <following>" по одному на строку
+    private void spill(String key, Entry e) {
+        if (spillDir == null || System.currentTimeMillis() - e.createdAt >= ttlMs) return;
+        try {
+            Files.createDirectories(spillDir);
+            Path tmp = spillDir.resolve(key + ".cache.tmp");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write("T " + e.createdAt + "\n");
+                for (String u : e.pair.followers) w.write("F " + u + "\n");
+                for (String u : e.pair.following) w.write("G " + u + "\n");
+            }
+            Files.move(tmp, spillDir.resolve(key + ".cache"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception ignored) {}
+    }
+
+    private Entry readSpill(String key, long now) {
+        if (spillDir == null) return null;
+        Path file = spillDir.resolve(key + ".cache");
+        try {
+            if (!Files.exists(file)) return null;
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).startsWith("T ")) return null;
+            long createdAt = Long.parseLong(lines.get(0).substring(2).trim());
+            if (now - createdAt >= ttlMs) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            List<String> followers = new ArrayList<>();
+            List<String> following = new ArrayList<>();
+            for (String line : lines) {
+                if (line.startsWith("F ")) followers.add(line.substring(2));
+                else if (line.startsWith("G ")) following.add(line.substring(2));
+            }
+            Files.deleteIfExists(file);
+            return new Entry(new IgPlaywrightScraper.Pair(UsernameSet.of(followers), UsernameSet.of(following)), createdAt);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Ключ служит и именем файла на диске
+    private static String key(long chatId, String username) {
+        return chatId + "_" + UsernameCodec.normalize(username);
+    }
+
+    private static long getenvLong(String name, long def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Long.parseLong(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgScrapeProgress;
+import com.pengrad.telegrambot.request.EditMessageText;
+import com.pengrad.telegrambot.request.SendMessage;
+
+import java.util.Locale;
+
+/**
+ * Одно статусное сообщение в чате, которое правится по ходу сбора через EditMessageText:
+ * фаза, собрано/ожидается, скорость и оценка оставшегося времени по каждому списку.
+ * Правка уходит не чаще раза в IG_PROGRESS_INTERVAL_SEC (по умолчанию 3) секунды и только если текст изменился —
+ * так статус не упирается в лимиты Telegram на редактирование.
+ */
+public class ScrapeProgressMessage implements IgScrapeProgress {
+    private static class ListState {
+        String phase;
+        int collected;
+        Integer expected;
+        long startedAt;
+        int startCount;
+    }
+
+    private final TelegramOutbox outbox;
+    private final long chatId;
+    private final String header;
+    private final long intervalMs;
+    private final ListState followers = new ListState();
+    private final ListState following = new ListState();
+    private volatile Integer messageId; // приходит асинхронно из ответа на SendMessage
+    private boolean pending;            // были изменения, пока messageId ещё не пришёл
+    private String lastText;
+    private long lastSentAt;
+
+    private ScrapeProgressMessage(TelegramOutbox outbox, long chatId, String header, long intervalMs) {
+        this.outbox = outbox;
+        this.chatId = chatId;
+        this.header = header;
+        this.intervalMs = intervalMs;
+    }
+
+    /** Отправить статусное сообщение с заголовком; дальше оно только редактируется. */
+    public static ScrapeProgressMessage start(TelegramOutbox outbox, long chatId, String header) {
+        long interval = getenvInt("IG_PROGRESS_INTERVAL_SEC", 3) * 1000L;
+        ScrapeProgressMessage p = new ScrapeProgressMessage(outbox, chatId, header, interval);
+        // Не склеивать с соседними сообщениями: правки заменили бы и их текст
+        outbox.sendStandalone(new SendMessage(chatId, header)).thenAccept(resp -> {
+            if (resp.isOk() && resp.message() != null) p.attach(resp.message().messageId());
+        });
+        p.lastText = header;
+        p.lastSentAt = System.currentTimeMillis();
+        return p;
+    }
+
+    @Override
+    public synchronized void update(boolean isFollowers, String phase, int collected, Integer expected) {
+        ListState st = isFollowers ? followers : following;
+        long now = System.currentTimeMillis();
+        if (st.phase == null) {
+            st.startedAt = now;
+            st.startCount = collected;
+        }
+        st.phase = phase;
+        st.collected = collected;
+        st.expected = expected;
+        if (messageId == null) {
+            // Сообщение ещё не отправлено — покажем, как только придёт его id (даже если это был последний "done")
+            pending = true;
+            return;
+        }
+        // Завершение списка показываем сразу, остальное — не чаще интервала
+        if (!"done".equals(phase) && now - lastSentAt < intervalMs) return;
+        flush(now);
+    }
+
+    private synchronized void attach(int id) {
+        messageId = id;
+        if (pending) flush(System.currentTimeMillis());
+    }
+
+    private void flush(long now) {
+        pending = false;
+        String text = render(now);
+        if (text.equals(lastText)) return;
+        lastText = text;
+        lastSentAt = now;
+        // Под тем же монитором: правки из двух потоков встают в очередь чата по порядку
+        outbox.send(new EditMessageText(chatId, messageId, text));
+    }
+
+    private String render(long now) {
+        StringBuilder sb = new StringBuilder(header);
+        appendLine(sb, "followers", followers, now);
+        appendLine(sb, "following", following, now);
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, String name, ListState st, long now) {
+        if (st.phase == null) return;
+        sb.append('\n').append(name).append(": ");
+        if ("done".equals(st.phase)) {
+            sb.append("готово, ").append(st.collected);
+            return;
+        }
+        sb.append(st.collected);
+        if (st.expected != null) sb.append('/').append(st.expected);
+        sb.append(" (").append(st.phase);
+        double elapsedMin = (now - st.startedAt) / 60_000.0;
+        int gained = st.collected - st.startCount;
+        if (elapsedMin > 0.05 && gained > 0) {
+            double perMin = gained / elapsedMin;
+            sb.append(String.format(Locale.ROOT, ", %.0f/мин", perMin));
+            if (st.expected != null && st.expected > st.collected) {
+                long etaMin = Math.round((st.expected - st.collected) / perMin);
+                sb.append(", осталось ≈ ").append(Math.max(1, etaMin)).append(" мин");
+            }
+        }
+        sb.append(')');
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.igbot;
+
+import com.example.igbot.util.UsernameSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Выгрузка простаивающих сессий чатов на диск, в IG_SESSION_DIR. Сохраняются только загруженные списки
+ * и выбранный /format. Cookies и состояние входа на диск не пишутся. Без каталога сессия при простое просто забывается.
+ * Файл &lt;chatId&gt;.session: версия, формат, затем followers и following в упакованном виде {@link UsernameSet}.
+ */
+public class SessionStore {
+    private static final int VERSION = 1;
+
+    public static class Saved {
+        public final String format;
+        public final UsernameSet followers;  // null — список не загружен
+        public final UsernameSet following;
+
+        Saved(String format, UsernameSet followers, UsernameSet following) {
+            this.format = format;
+            this.followers = followers;
+            this.following = following;
+        }
+    }
+
+    private final Path dir;
+
+    public SessionStore(Path dir) {
+        this.dir = dir;
+    }
+
+    public static SessionStore fromEnv() {
+        String d = System.getenv("IG_SESSION_DIR");
+        return new SessionStore(d == null || d.isBlank() ? null : Paths.get(d));
+    }
+
+    public void save(long chatId, String format, UsernameSet followers, UsernameSet following) {
+        if (dir == null) return;
+        try {
+            Files.createDirectories(dir);
+            Path file = fileFor(chatId);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(format);
+                writeSet(out, followers);
+                writeSet(out, following);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception ignored) {}
+    }
+
+    /** Прочитать и удалить выгруженную сессию; null, если её нет или файл не читается. */
+    public Saved take(long chatId) {
+        if (dir == null) return null;
+        Path file = fileFor(chatId);
+        try {
+            if (!Files.exists(file)) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != VERSION) return null;
+                String format = in.readUTF();
+                UsernameSet followers = readSet(in);
+                UsernameSet following = readSet(in);
+                return new Saved(format, followers, following);
+            }
+        } catch (Exception e) {
+            return null;
+        } finally {
+            try { Files.deleteIfExists(file); } catch (Exception ignored) {}
+        }
+    }
+
+    public void delete(long chatId) {
+        if (dir == null) return;
+        try { Files.deleteIfExists(fileFor(chatId)); } catch (Exception ignored) {}
+    }
+
+    private static void writeSet(DataOutputStream out, UsernameSet set) throws IOException {
+        out.writeBoolean(set != null);
+        if (set != null) set.writeTo(out);
+    }
+
+    private static UsernameSet readSet(DataInputStream in) throws IOException {
+        return in.readBoolean() ? UsernameSet.readFrom(in) : null;
+    }
+
+    private Path fileFor(long chatId) {
+        return dir.resolve(chatId + ".session");
+    }
+}
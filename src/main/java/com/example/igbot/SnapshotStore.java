@@ -0,0 +1,308 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgPlaywrightScraper;
+import com.example.igbot.util.UsernameCodec;
+import com.example.igbot.util.UsernameSet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * История снимков followers/following для каждого аккаунта, на диске, без БД. История своя у каждого чата:
+ * списки собраны входом этого чата, и /diff другого чата их не видит (как и {@link ScrapeCache}).
+ * Файл IG_SNAPSHOT_DIR/&lt;chatId&gt;_&lt;user&gt;.snaplog только дописывается, по одной записи на сбор: обычно дельта
+ * (кто появился и кто пропал относительно прошлого снимка), так что запись стоит столько, сколько изменений.
+ * Вместо дельты пишется полный снимок — для первого сбора, раз в IG_SNAPSHOT_CHECKPOINT_EVERY дельт и когда
+ * изменилось почти всё и дельта не дешевле, — чтобы состояние восстанавливалось без проигрывания всей истории.
+ * Неполный сбор (не сошёлся со счётчиками) пишется отдельной записью-пометкой со своими списками: в цепочку
+ * снимков он не входит, поэтому ни последнее состояние, ни /diff от него не меняются.
+ *
+ * Запись: int длина данных, byte тип, long время, данные (списки {@link UsernameSet}), int CRC32.
+ * Недописанный хвост (например, после падения) при чтении отбрасывается и затирается следующей записью.
+ * Последнее состояние недавно сохранявшихся аккаунтов держится в памяти, и запись файл не перечитывает.
+ * Чтение для /diff идёт через отображение в память; при записи файл, если его всё же надо перечитать,
+ * читается обычным чтением — обрезать хвост под живым отображением нельзя.
+ */
+public class SnapshotStore {
+    private static final byte CHECKPOINT = 'C';
+    private static final byte DELTA = 'D';
+    private static final byte PARTIAL = 'P';
+    private static final int HEADER = 4 + 1 + 8;
+    private static final int TAILS_IN_MEMORY = 64;
+
+    /** Изменения между двумя снимками. */
+    public static class Diff {
+        public final long fromMs;
+        public final long toMs;
+        public final int snapshots; // сколько сборов уложилось в период, включая крайние
+        public final List<String> gainedFollowers;
+        public final List<String> lostFollowers;
+        public final List<String> gainedFollowing;
+        public final List<String> lostFollowing;
+
+        Diff(long fromMs, long toMs, int snapshots, List<String> gainedFollowers, List<String> lostFollowers,
+             List<String> gainedFollowing, List<String> lostFollowing) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            this.snapshots = snapshots;
+            this.gainedFollowers = gainedFollowers;
+            this.lostFollowers = lostFollowers;
+            this.gainedFollowing = gainedFollowing;
+            this.lostFollowing = lostFollowing;
+        }
+
+        public boolean isEmpty() {
+            return gainedFollowers.isEmpty() && lostFollowers.isEmpty() && gainedFollowing.isEmpty() && lostFollowing.isEmpty();
+        }
+    }
+
+    private static class Record {
+        byte type;
+        long time;
+        int offset; // начало данных
+        int length;
+    }
+
+    // Конец цепочки снимков в файле: последнее полное состояние и где дописывать следующую запись
+    private static class Tail {
+        final long end;
+        final int deltas; // дельт после последнего полного снимка
+        final UsernameSet followers;
+        final UsernameSet following;
+
+        Tail(long end, int deltas, UsernameSet followers, UsernameSet following) {
+            this.end = end; this.deltas = deltas; this.followers = followers; this.following = following;
+        }
+    }
+
+    private final Path dir;
+    private final int checkpointEvery;
+    // Под локом хранилища; устаревшая запись (файл изменился снаружи) узнаётся по размеру файла
+    private final Map<String, Tail> tails = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+            return size() > TAILS_IN_MEMORY;
+        }
+    };
+
+    public SnapshotStore(Path dir, int checkpointEvery) {
+        this.dir = dir;
+        this.checkpointEvery = Math.max(1, checkpointEvery);
+    }
+
+    public static SnapshotStore fromEnv() {
+        String d = System.getenv("IG_SNAPSHOT_DIR");
+        return new SnapshotStore(Paths.get(d == null || d.isBlank() ? "snapshots" : d), getenvInt("IG_SNAPSHOT_CHECKPOINT_EVERY", 20));
+    }
+
+    public synchronized IgPlaywrightScraper.Pair loadLatest(long chatId, String username) {
+        try {
+            Path file = logFor(chatId, username);
+            if (!Files.exists(file)) return null;
+            Tail t = tails.get(file.getFileName().toString());
+            if (t != null && t.end == Files.size(file)) return t.followers == null ? null : new IgPlaywrightScraper.Pair(t.followers, t.following);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                List<Record> records = scan(buf);
+                return stateAt(buf, records, records.size() - 1);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public synchronized void save(long chatId, String username, IgPlaywrightScraper.Pair pair) {
+        try {
+            Files.createDirectories(dir);
+            Path file = logFor(chatId, username);
+            String key = file.getFileName().toString();
+            UsernameSet followers = UsernameSet.of(pair.followers);
+            UsernameSet following = UsernameSet.of(pair.following);
+            long now = System.currentTimeMillis();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Tail t = tails.get(key);
+                if (t == null || t.end != ch.size()) t = readTail(ch);
+                if (t.end < ch.size()) ch.truncate(t.end); // отрезать недописанный хвост
+                ch.position(t.end);
+
+                if (!pair.complete) {
+                    append(ch, PARTIAL, now, followers, following);
+                    t = new Tail(ch.position(), t.deltas, t.followers, t.following);
+                } else if (t.followers == null) {
+                    append(ch, CHECKPOINT, now, followers, following);
+                    t = new Tail(ch.position(), 0, followers, following);
+                } else {
+                    List<String> plusF = new ArrayList<>(), minusF = new ArrayList<>();
+                    List<String> plusG = new ArrayList<>(), minusG = new ArrayList<>();
+                    diffSorted(t.followers, followers, plusF, minusF);
+                    diffSorted(t.following, following, plusG, minusG);
+                    // Полный снимок вместо дельты — раз в N дельт или когда изменилось почти всё и дельта его не дешевле
+                    long changed = plusF.size() + minusF.size() + plusG.size() + minusG.size();
+                    if (t.deltas + 1 >= checkpointEvery || changed * 2 > followers.size() + following.size()) {
+                        append(ch, CHECKPOINT, now, followers, following);
+                        t = new Tail(ch.position(), 0, followers, following);
+                    } else {
+                        append(ch, DELTA, now, UsernameSet.of(plusF), UsernameSet.of(minusF), UsernameSet.of(plusG), UsernameSet.of(minusG));
+                        t = new Tail(ch.position(), t.deltas + 1, followers, following);
+                    }
+                }
+                ch.force(false);
+                tails.put(key, t);
+            }
+        } catch (Exception ignored) {}
+    }
+
+    /**
+     * Кто появился и кто пропал с момента sinceMs до последнего снимка. Точка отсчёта — последний снимок
+     * не позже sinceMs (или самый первый, если история начинается позже); sinceMs &lt; 0 — относительно
+     * предыдущего снимка. null, если снимков меньше двух.
+     */
+    public synchronized Diff diff(long chatId, String username, long sinceMs) {
+        try {
+            Path file = logFor(chatId, username);
+            if (!Files.exists(file)) return null;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                List<Record> records = scan(buf);
+                // Моменты снимков — записи цепочки; неполные сборы не в счёт
+                List<Integer> points = new ArrayList<>();
+                for (int i = 0; i < records.size(); i++) {
+                    if (records.get(i).type != PARTIAL) points.add(i);
+                }
+                if (points.size() < 2) return null;
+                int base = sinceMs < 0 ? points.size() - 2 : 0;
+                if (sinceMs >= 0) {
+                    for (int i = 0; i < points.size() - 1; i++) if (records.get(points.get(i)).time <= sinceMs) base = i;
+                }
+                // Итог периода — разница крайних состояний: повторное появление отменяет пропажу и наоборот
+                int from = points.get(base), to = points.get(points.size() - 1);
+                IgPlaywrightScraper.Pair before = stateAt(buf, records, from);
+                IgPlaywrightScraper.Pair after = stateAt(buf, records, to);
+                List<String> plusF = new ArrayList<>(), minusF = new ArrayList<>();
+                List<String> plusG = new ArrayList<>(), minusG = new ArrayList<>();
+                diffSorted(before.followers, UsernameSet.of(after.followers), plusF, minusF);
+                diffSorted(before.following, UsernameSet.of(after.following), plusG, minusG);
+                return new Diff(records.get(from).time, records.get(to).time, points.size() - base, plusF, minusF, plusG, minusG);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Состояние после записи upto: последний полный снимок до неё плюс дельты после него; null — полного снимка нет
+    private static IgPlaywrightScraper.Pair stateAt(ByteBuffer buf, List<Record> records, int upto) throws IOException {
+        int last = -1;
+        for (int i = 0; i <= upto; i++) if (records.get(i).type == CHECKPOINT) last = i;
+        if (last < 0) return null;
+        DataInputStream in = payload(buf, records.get(last));
+        UsernameSet followers = UsernameSet.readFrom(in);
+        UsernameSet following = UsernameSet.readFrom(in);
+        Set<String> f = null, g = null;
+        for (int i = last + 1; i <= upto; i++) {
+            if (records.get(i).type != DELTA) continue;
+            if (f == null) { f = new HashSet<>(followers); g = new HashSet<>(following); }
+            DataInputStream d = payload(buf, records.get(i));
+            f.addAll(UsernameSet.readFrom(d));
+            f.removeAll(UsernameSet.readFrom(d));
+            g.addAll(UsernameSet.readFrom(d));
+            g.removeAll(UsernameSet.readFrom(d));
+        }
+        if (f == null) return new IgPlaywrightScraper.Pair(followers, following);
+        return new IgPlaywrightScraper.Pair(UsernameSet.of(f), UsernameSet.of(g));
+    }
+
+    // Перечитать файл, когда состояния нет в памяти: без отображения, чтобы потом можно было обрезать хвост
+    private static Tail readTail(FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+        while (buf.hasRemaining() && ch.read(buf, buf.position()) > 0) {}
+        buf.flip();
+        List<Record> records = scan(buf);
+        long end = records.isEmpty() ? 0 : records.get(records.size() - 1).offset + records.get(records.size() - 1).length + 4;
+        IgPlaywrightScraper.Pair state = records.isEmpty() ? null : stateAt(buf, records, records.size() - 1);
+        if (state == null) return new Tail(end, 0, null, null);
+        return new Tail(end, deltasSinceCheckpoint(records), (UsernameSet) state.followers, (UsernameSet) state.following);
+    }
+
+    private static int deltasSinceCheckpoint(List<Record> records) {
+        int n = 0;
+        for (int i = records.size() - 1; i >= 0 && records.get(i).type != CHECKPOINT; i--) {
+            if (records.get(i).type == DELTA) n++;
+        }
+        return n;
+    }
+
+    // Целые записи с верной контрольной суммой; на первой битой чтение останавливается
+    private static List<Record> scan(ByteBuffer buf) {
+        List<Record> out = new ArrayList<>();
+        int pos = 0, limit = buf.limit();
+        CRC32 crc = new CRC32();
+        while (limit - pos >= HEADER + 4) {
+            int length = buf.getInt(pos);
+            byte type = buf.get(pos + 4);
+            if (length < 0 || (type != CHECKPOINT && type != DELTA && type != PARTIAL) || limit - pos - HEADER - 4 < length) break;
+            crc.reset();
+            crc.update(buf.slice(pos + 4, 1 + 8 + length));
+            if ((int) crc.getValue() != buf.getInt(pos + HEADER + length)) break;
+            Record r = new Record();
+            r.type = type;
+            r.time = buf.getLong(pos + 5);
+            r.offset = pos + HEADER;
+            r.length = length;
+            out.add(r);
+            pos += HEADER + length + 4;
+        }
+        return out;
+    }
+
+    private static DataInputStream payload(ByteBuffer buf, Record r) {
+        byte[] bytes = new byte[r.length];
+        buf.get(r.offset, bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static void append(FileChannel ch, byte type, long time, UsernameSet... sets) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        for (UsernameSet s : sets) s.writeTo(out);
+        byte[] data = body.toByteArray();
+        ByteBuffer rec = ByteBuffer.allocate(HEADER + data.length + 4);
+        rec.putInt(data.length).put(type).putLong(time).put(data);
+        CRC32 crc = new CRC32();
+        crc.update(rec.array(), 4, 1 + 8 + data.length);
+        rec.putInt((int) crc.getValue()).flip();
+        while (rec.hasRemaining()) ch.write(rec);
+    }
+
+    // Оба множества отсортированы одинаково — хватает одного прохода слиянием
+    private static void diffSorted(Set<String> before, Set<String> after, List<String> added, List<String> removed) {
+        Iterator<String> a = UsernameSet.of(before).iterator(), b = after.iterator();
+        String x = a.hasNext() ? a.next() : null, y = b.hasNext() ? b.next() : null;
+        while (x != null || y != null) {
+            int cmp = x == null ? 1 : y == null ? -1 : x.compareTo(y);
+            if (cmp == 0) { x = a.hasNext() ? a.next() : null; y = b.hasNext() ? b.next() : null; }
+            else if (cmp < 0) { removed.add(x); x = a.hasNext() ? a.next() : null; }
+            else { added.add(y); y = b.hasNext() ? b.next() : null; }
+        }
+    }
+
+    private Path logFor(long chatId, String username) {
+        return dir.resolve(chatId + "_" + UsernameCodec.normalize(username) + ".snaplog");
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
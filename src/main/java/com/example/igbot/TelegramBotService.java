@@ -10,63 +10,141 @@ import com.pengrad.telegrambot.request.SendDocument;
 import com.pengrad.telegrambot.request.SendMessage;
 import com.pengrad.telegrambot.response.GetFileResponse;
 import com.example.igbot.util.CookieLoader;
+import com.example.igbot.playwright.IgBrowserPool;
 import com.example.igbot.playwright.IgPlaywrightScraper;
 import com.example.igbot.playwright.IgPlaywrightLogin;
+import com.example.igbot.playwright.IgScrapeCheckpoint;
+import com.example.igbot.playwright.IgScrapeProgress;
+import com.example.igbot.playwright.IgStateVault;
 import com.example.igbot.util.AppCookie;
+import com.example.igbot.util.TextLines;
+import com.example.igbot.util.UsernameSet;
+import com.example.igbot.util.UsernameCodec;
 import com.pengrad.telegrambot.request.DeleteMessage;
 import com.pengrad.telegrambot.request.DeleteWebhook;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class TelegramBotService {
     private final TelegramBot bot;
+    // Все ответы в чаты идут через очередь с лимитами Telegram; напрямую — только служебные запросы
+    private final TelegramOutbox outbox;
     private final HttpClient httpClient = HttpClient.newHttpClient();
 
     private static class Session {
-        Set<String> followers; // usernames
-        Set<String> following; // usernames
+        // Готовые списки хранятся упакованными: сессий много, а живут они долго
+        UsernameSet followers;
+        UsernameSet following;
+        volatile long lastActive = System.currentTimeMillis();
         Instant started = Instant.now();
         Stage stage = Stage.IDLE;
         String scrapeUsername;
+        boolean scrapeFresh; // /scrape <user> fresh — не брать результат из кэша
+        boolean scrapeDelta; // /scrape <user> delta — дособрать только новое относительно прошлого снимка
+        ResultFormat format = ResultFormat.AUTO; // /format: отдельные .txt или один архив
         // Auto-login state (in-memory only)
         String loginUsername;
         Integer usernameMsgId;
         Integer passwordMsgId;
         IgPlaywrightLogin.Handle pendingLogin;
-        Set<AppCookie> authCookies;
+        ResourceGovernor.Resource pendingLoginTicket; // учёт pendingLogin в ResourceGovernor
+        String authState;   // Playwright storage state входа: после /login, из IgStateVault или из присланных cookies
+        String authAccount; // аккаунт, под которым выполнен /login (ключ в IgStateVault)
     }
 
+    private enum ResultFormat { AUTO, TXT, ZIP }
+
     private enum Stage { IDLE, WAIT_FOLLOWERS, WAIT_FOLLOWING, WAIT_COOKIES, WAIT_LOGIN_USERNAME, WAIT_LOGIN_PASSWORD, AWAIT_2FA }
 
+    // Сессия чата читается и меняется только из его ящика в dispatcher
     private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final SessionStore sessionStore = SessionStore.fromEnv();
+    private final long sessionIdleMs = getenvInt("IG_SESSION_IDLE_MIN", 60) * 60_000L;
+    private volatile Thread sessionSweeper;
+    private final ChatDispatcher dispatcher = new ChatDispatcher();
+    private volatile TelegramWebhookServer webhook;
+    private final ScrapeCache scrapeCache = ScrapeCache.fromEnv();
+    private final SnapshotStore snapshots = SnapshotStore.fromEnv();
+    // Вся работа с браузером идёт через очередь: слушатель апдейтов не блокируется на минуты
+    private final ResourceGovernor governor = ResourceGovernor.fromEnv(IgBrowserPool.shared().size());
+    private final BrowserJobScheduler jobs = BrowserJobScheduler.fromEnv(IgBrowserPool.shared().size(), governor, this::jobTimedOut);
+    private final Set<Long> adminChats = parseChatIds(System.getenv("IG_ADMIN_CHAT_IDS"));
+    private final WatchScheduler watches = WatchScheduler.fromEnv();
+    private final IgStateVault vault = IgStateVault.fromEnv();
 
     public TelegramBotService(String token) {
         this.bot = new TelegramBot(token);
+        this.outbox = TelegramOutbox.fromEnv(bot);
     }
 
     public void start() {
+        governor.start();
+        watches.start(this::launchWatch);
+        sessionSweeper = Thread.ofVirtual().name("session-sweeper").start(this::sweepSessions);
+        String webhookUrl = System.getenv("IG_WEBHOOK_URL");
+        if (webhookUrl != null && !webhookUrl.isBlank()) {
+            startWebhook(webhookUrl.trim());
+            return;
+        }
         // Ensure webhook is disabled before using getUpdates to avoid 409 Conflict
         try { bot.execute(new DeleteWebhook()); } catch (Exception ignored) {}
         bot.setUpdatesListener(updates -> {
-            for (Update u : updates) handleUpdate(u);
+            for (Update u : updates) dispatch(u);
             return UpdatesListener.CONFIRMED_UPDATES_ALL;
         });
         System.out.println("Bot started");
     }
 
+    // Webhook: Telegram сам присылает апдейты на IG_WEBHOOK_URL, локально их принимает встроенный HTTP-сервер
+    private void startWebhook(String url) {
+        String secret = System.getenv("IG_WEBHOOK_SECRET");
+        if (secret == null || secret.isBlank()) secret = UUID.randomUUID().toString().replace("-", "");
+        int port = getenvInt("IG_WEBHOOK_PORT", 8080);
+        int maxConcurrent = getenvInt("IG_WEBHOOK_MAX_CONNECTIONS", 40);
+        String path = URI.create(url).getPath();
+        try {
+            webhook = TelegramWebhookServer.start(port, path, secret, maxConcurrent, this::dispatch);
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось открыть порт " + port + " для webhook", e);
+        }
+        BaseResponse resp = bot.execute(new SetWebhook().url(url).secretToken(secret).maxConnections(Math.min(100, maxConcurrent)));
+        if (!resp.isOk()) throw new IllegalStateException("setWebhook: " + resp.errorCode() + " " + resp.description());
+        System.out.println("Bot started (webhook on port " + port + ")");
+    }
+
+    // Апдейты одного чата обрабатываются по порядку, разные чаты — параллельно
+    private void dispatch(Update u) {
+        Message m = u.message();
+        if (m != null) dispatcher.post(m.chat().id(), () -> handleUpdate(u));
+    }
+
     public void shutdown() {
         try { bot.removeGetUpdatesListener(); } catch (Exception ignored) {}
+        if (sessionSweeper != null) sessionSweeper.interrupt();
+        try { if (webhook != null) webhook.stop(); } catch (Exception ignored) {}
+        try { watches.shutdown(); } catch (Exception ignored) {}
+        try { governor.shutdown(); } catch (Exception ignored) {}
+        try { jobs.shutdown(); } catch (Exception ignored) {}
+        try { dispatcher.shutdown(); } catch (Exception ignored) {}
+        try { outbox.shutdown(); } catch (Exception ignored) {}
+        try { IgBrowserPool.shutdownShared(); } catch (Exception ignored) {}
         System.out.println("Bot stopped");
     }
 
@@ -76,25 +154,53 @@ public class TelegramBotService {
         Long chatId = msg.chat().id();
         String text = msg.text();
 
+        Session current = sessions.get(chatId);
+        if (current != null) current.lastActive = System.currentTimeMillis();
+
         if (text != null && text.startsWith("/start")) {
+            sessionStore.delete(chatId);
             sessions.put(chatId, new Session());
-            bot.execute(new SendMessage(chatId, startText()));
+            outbox.send(new SendMessage(chatId, startText()));
             return;
         }
         if (text != null && text.startsWith("/help")) {
-            bot.execute(new SendMessage(chatId, helpText()));
+            outbox.send(new SendMessage(chatId, helpText()));
+            return;
+        }
+        if (text != null && text.startsWith("/stats")) {
+            String mine = jobStatusText(chatId);
+            outbox.send(new SendMessage(chatId, (mine == null ? "" : "Твоя задача: " + mine + "\n") + jobs.stats() + "\n" + watches.stats() + "\nСессий в памяти: " + sessions.size() + "\n\n" + outbox.stats() + "\n\n" + scrapeCache.stats() + "\n\n" + IgPlaywrightScraper.strategyStats()));
+            return;
+        }
+        if (text != null && text.startsWith("/format")) {
+            Session s = session(chatId);
+            String[] parts = text.trim().split("\\s+");
+            ResultFormat f = null;
+            if (parts.length >= 2) {
+                try { f = ResultFormat.valueOf(parts[1].toUpperCase(Locale.ROOT)); } catch (IllegalArgumentException ignored) {}
+            }
+            if (f == null) {
+                outbox.send(new SendMessage(chatId, "Использование: /format <auto|txt|zip>\nСейчас: " + s.format.name().toLowerCase(Locale.ROOT)));
+                return;
+            }
+            s.format = f;
+            outbox.send(new SendMessage(chatId, "Формат результата: " + f.name().toLowerCase(Locale.ROOT)));
+            return;
+        }
+        if (text != null && text.startsWith("/cancel")) {
+            if (!jobs.cancel(chatId)) outbox.send(new SendMessage(chatId, "Нет задачи для отмены."));
             return;
         }
         if (text != null && text.startsWith("/find")) {
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            Session s = session(chatId);
             String[] parts = text.trim().split("\\s+", 2);
             if (parts.length < 2) {
-                bot.execute(new SendMessage(chatId, "Использование: /find <pattern>"));
+                outbox.send(new SendMessage(chatId, "Использование: /find <pattern>"));
                 return;
             }
             String pat = parts[1].toLowerCase(Locale.ROOT);
             if (s.followers == null || s.following == null) {
-                bot.execute(new SendMessage(chatId, "Сначала соберите списки: /scrape <username> или загрузите через /check."));
+                outbox.send(new SendMessage(chatId, "Сначала соберите списки: /scrape <username> или загрузите через /check."));
                 return;
             }
             List<String> f1 = s.followers.stream().filter(u -> u.toLowerCase(Locale.ROOT).contains(pat)).limit(10).collect(Collectors.toList());
@@ -104,23 +210,23 @@ public class TelegramBotService {
                     pat,
                     f1.size(), String.join(", ", f1),
                     f2.size(), String.join(", ", f2));
-            bot.execute(new SendMessage(chatId, msgText));
+            outbox.send(new SendMessage(chatId, msgText));
             return;
         }
         if (text != null && text.startsWith("/why")) {
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            Session s = session(chatId);
             String[] parts = text.trim().split("\\s+", 2);
             if (parts.length < 2) {
-                bot.execute(new SendMessage(chatId, "Использование: /why <username>"));
+                outbox.send(new SendMessage(chatId, "Использование: /why <username>"));
                 return;
             }
             String q = normalizeUsername(parts[1]);
             if (q.isEmpty()) {
-                bot.execute(new SendMessage(chatId, "Некорректный username."));
+                outbox.send(new SendMessage(chatId, "Некорректный username."));
                 return;
             }
             if (s.followers == null || s.following == null) {
-                bot.execute(new SendMessage(chatId, "Сначала соберите списки: /scrape <username> или загрузите через /check."));
+                outbox.send(new SendMessage(chatId, "Сначала соберите списки: /scrape <username> или загрузите через /check."));
                 return;
             }
             boolean inFollowers = s.followers.contains(q);
@@ -136,70 +242,191 @@ public class TelegramBotService {
                     inFollowers ? "да" : "нет",
                     inFollowing ? "да" : "нет",
                     category);
-            bot.execute(new SendMessage(chatId, msgText));
+            outbox.send(new SendMessage(chatId, msgText));
+            return;
+        }
+        if (text != null && text.startsWith("/diff")) {
+            String[] parts = text.trim().split("\\s+");
+            String user = parts.length >= 2 ? normalizeUsername(parts[1]) : "";
+            Long since = parts.length >= 3 ? parseSince(parts[2]) : Long.valueOf(-1);
+            if (user.isEmpty() || since == null) {
+                outbox.send(new SendMessage(chatId, "Использование: /diff <username> [7d|24h|2w|2024-05-01]\nБез периода — изменения с предыдущего сбора."));
+                return;
+            }
+            SnapshotStore.Diff d = snapshots.diff(chatId, user, since);
+            if (d == null) {
+                outbox.send(new SendMessage(chatId, "Для @" + user + " пока меньше двух сохранённых сборов. Сделай /scrape " + user + " ещё раз позже."));
+                return;
+            }
+            outbox.send(new SendMessage(chatId, diffText(user, d)));
+            return;
+        }
+        if (text != null && text.startsWith("/watch")) {
+            String[] parts = text.trim().split("\\s+");
+            if (parts.length == 1) {
+                outbox.send(new SendMessage(chatId, watchListText(chatId)));
+                return;
+            }
+            String user = normalizeUsername(parts[1]);
+            Long interval = parts.length >= 3 ? parseDurationMs(parts[2]) : null;
+            if (user.isEmpty() || interval == null) {
+                outbox.send(new SendMessage(chatId, "Использование: /watch <username> <интервал, например 12h или 1d>\n/watch — список подписок, /unwatch <username> — снять."));
+                return;
+            }
+            long minMs = getenvInt("IG_WATCH_MIN_INTERVAL_MIN", 60) * 60_000L;
+            if (interval < minMs) {
+                outbox.send(new SendMessage(chatId, "Интервал не меньше " + minMs / 60_000 + " мин."));
+                return;
+            }
+            List<WatchScheduler.Watch> mine = watches.list(chatId);
+            boolean replacing = mine.stream().anyMatch(w -> w.username.equals(user));
+            if (!replacing && mine.size() >= getenvInt("IG_WATCH_MAX_PER_CHAT", 5)) {
+                outbox.send(new SendMessage(chatId, "Слишком много подписок. Сними лишние: /unwatch <username>"));
+                return;
+            }
+            WatchScheduler.Watch w = watches.add(chatId, user, interval);
+            Session s = session(chatId);
+            String note = authState(chatId, s) == null ? "\nДля сборов нужен вход: /login (или cookies через /scrape)." : "";
+            outbox.send(new SendMessage(chatId, "Слежу за @" + user + " каждые " + formatDuration(interval) + ", первый сбор " + formatTime(w.nextRunAt())
+                    + ". Напишу, только если кто-то подпишется или отпишется." + note));
+            return;
+        }
+        if (text != null && text.startsWith("/unwatch")) {
+            String[] parts = text.trim().split("\\s+");
+            String user = parts.length >= 2 ? normalizeUsername(parts[1]) : "";
+            if (user.isEmpty()) {
+                outbox.send(new SendMessage(chatId, "Использование: /unwatch <username>"));
+                return;
+            }
+            outbox.send(new SendMessage(chatId, watches.remove(chatId, user) ? "Больше не слежу за @" + user + "." : "Подписки на @" + user + " нет."));
+            return;
+        }
+        if (text != null && text.startsWith("/admin")) {
+            if (!adminChats.contains(chatId)) {
+                outbox.send(new SendMessage(chatId, "Команда доступна только администратору."));
+                return;
+            }
+            String[] parts = text.trim().split("\\s+");
+            if (parts.length < 2 || !parts[1].equalsIgnoreCase("resources")) {
+                outbox.send(new SendMessage(chatId, "Использование: /admin resources"));
+                return;
+            }
+            outbox.send(new SendMessage(chatId, resourcesText()));
             return;
         }
         if (text != null && text.startsWith("/login")) {
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            Session s = session(chatId);
+            // Незавершённый прошлый вход больше не нужен — его браузер освобождаем сразу
+            dropPendingLogin(s);
+            if (!governor.canPark2fa()) {
+                s.stage = Stage.IDLE;
+                outbox.send(new SendMessage(chatId, "Сейчас слишком много входов ждут код 2FA. Попробуй /login через пару минут."));
+                return;
+            }
             s.stage = Stage.WAIT_LOGIN_USERNAME;
             s.loginUsername = null;
-            s.pendingLogin = null;
-            s.authCookies = null;
-            bot.execute(new SendMessage(chatId, "Введи username аккаунта Instagram. Затем введи пароль. Эти сообщения будут удалены."));
+            s.authState = null;
+            s.authAccount = null;
+            outbox.send(new SendMessage(chatId, "Введи username аккаунта Instagram. Затем введи пароль. Эти сообщения будут удалены."));
+            return;
+        }
+        if (text != null && text.startsWith("/logout")) {
+            Session s = session(chatId);
+            if (s.authAccount != null) vault.delete(chatId, s.authAccount);
+            s.authState = null;
+            s.authAccount = null;
+            outbox.send(new SendMessage(chatId, "Сохранённый вход удалён. Следующий /login спросит пароль."));
             return;
         }
         if (text != null && text.startsWith("/2fa")) {
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            Session s = session(chatId);
             if (s.stage != Stage.AWAIT_2FA || s.pendingLogin == null) {
-                bot.execute(new SendMessage(chatId, "Сейчас 2FA не ожидается. Сначала выполни /login."));
+                outbox.send(new SendMessage(chatId, "Сейчас 2FA не ожидается. Сначала выполни /login."));
                 return;
             }
             String[] parts = text.trim().split("\\s+", 2);
             if (parts.length < 2) {
-                bot.execute(new SendMessage(chatId, "Использование: /2fa <код>"));
+                outbox.send(new SendMessage(chatId, "Использование: /2fa <код>"));
                 return;
             }
             String code = parts[1].trim();
-            try {
-                Set<AppCookie> cookies = IgPlaywrightLogin.submit2FA(s.pendingLogin, code);
-                s.authCookies = cookies;
-                s.pendingLogin = null;
-                s.stage = Stage.IDLE;
-                bot.execute(new SendMessage(chatId, "2FA пройден. Можно запускать /scrape <username>."));
-            } catch (Exception e) {
-                s.pendingLogin = null;
-                s.stage = Stage.IDLE;
-                bot.execute(new SendMessage(chatId, "Ошибка 2FA: " + (e.getMessage()==null? e.toString(): e.getMessage())));
-            }
+            IgPlaywrightLogin.Handle handle = s.pendingLogin;
+            ResourceGovernor.Resource ticket = s.pendingLoginTicket;
+            String account = s.loginUsername;
+            submitJob(chatId, "2fa", 0, () -> {
+                // Браузер переходит к задаче, только если срок ожидания ещё не вышел; иначе его закроет governor
+                if (!governor.release(ticket)) return;
+                IgPlaywrightLogin.Result res = null;
+                Exception error = null;
+                try {
+                    res = IgPlaywrightLogin.submit2FA(handle, code);
+                } catch (Exception e) {
+                    error = e;
+                }
+                IgPlaywrightLogin.Result result = res;
+                Exception failure = error;
+                boolean cancelled = failure != null && isCancelled(failure);
+                inChat(chatId, session -> {
+                    if (session.pendingLogin == handle) {
+                        session.pendingLogin = null;
+                        session.pendingLoginTicket = null;
+                        session.stage = Stage.IDLE;
+                    }
+                    if (result != null) {
+                        rememberLogin(chatId, session, account, result);
+                        outbox.send(new SendMessage(chatId, "2FA пройден. Можно запускать /scrape <username>."));
+                    } else if (!cancelled) {
+                        outbox.send(new SendMessage(chatId, "Ошибка 2FA: " + (failure.getMessage()==null? failure.toString(): failure.getMessage())));
+                    }
+                });
+            }, "Проверка кода 2FA отменена.");
             return;
         }
         if (text != null && text.startsWith("/scrape")) {
             String[] parts = text.trim().split("\\s+");
             if (parts.length < 2) {
-                bot.execute(new SendMessage(chatId, "Использование: /scrape <username>\nЗатем пришли файл cookies (Netscape или строки вида name=value), полученные из браузера для domain instagram.com."));
+                outbox.send(new SendMessage(chatId, "Использование: /scrape <username> [fresh] [delta]\nЗатем пришли файл cookies (Netscape или строки вида name=value), полученные из браузера для domain instagram.com."));
                 return;
             }
             String username = normalizeUsername(parts[1]);
             if (username.isEmpty()) {
-                bot.execute(new SendMessage(chatId, "Некорректный username."));
+                outbox.send(new SendMessage(chatId, "Некорректный username."));
                 return;
             }
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            if (jobs.hasJob(chatId)) {
+                outbox.send(new SendMessage(chatId, busyText(chatId)));
+                return;
+            }
+            Session s = session(chatId);
             s.scrapeUsername = username;
-            if (s.authCookies != null && !s.authCookies.isEmpty()) {
-                runScrape(chatId, s, s.authCookies);
+            s.scrapeFresh = false;
+            s.scrapeDelta = false;
+            for (int i = 2; i < parts.length; i++) {
+                if (parts[i].equalsIgnoreCase("fresh")) s.scrapeFresh = true;
+                if (parts[i].equalsIgnoreCase("delta")) s.scrapeDelta = true;
+            }
+            // Свежий результат, собранный этим же чатом, — вход не нужен, браузер не запускаем.
+            // Чужие сборы не выдаются: списки закрытого аккаунта видны только тому, кто их собрал своим входом
+            ScrapeCache.Entry cached = s.scrapeFresh ? null : scrapeCache.get(chatId, username);
+            if (cached != null) {
+                deliverCached(chatId, s, username, cached);
+                return;
+            }
+            String state = authState(chatId, s);
+            if (state != null) {
+                runScrape(chatId, s, state);
             } else {
                 s.stage = Stage.WAIT_COOKIES;
-                bot.execute(new SendMessage(chatId, "Пришли файл cookies для instagram.com ИЛИ сначала выполни /login. Формат: Netscape Cookie File или строки \nname=value\n...\nВнимание: использование скрейпинга может нарушать правила Instagram."));
+                outbox.send(new SendMessage(chatId, "Пришли файл cookies для instagram.com ИЛИ сначала выполни /login. Формат: Netscape Cookie File или строки \nname=value\n...\nВнимание: использование скрейпинга может нарушать правила Instagram."));
             }
             return;
         }
         if (text != null && text.startsWith("/check")) {
-            Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+            Session s = session(chatId);
             s.stage = Stage.WAIT_FOLLOWERS;
             s.followers = null;
             s.following = null;
-            bot.execute(new SendMessage(chatId, "Отправь файл со списком подписчиков (followers) — по одному username в строке. Затем отправь файл с подписками (following)."));
+            outbox.send(new SendMessage(chatId, "Отправь файл со списком подписчиков (followers) — по одному username в строке. Затем отправь файл с подписками (following)."));
             return;
         }
 
@@ -212,125 +439,452 @@ public class TelegramBotService {
         // Accept plain text lists when waiting
         Session s = sessions.get(chatId);
         if (s != null && (s.stage == Stage.WAIT_FOLLOWERS || s.stage == Stage.WAIT_FOLLOWING) && text != null) {
-            Set<String> usernames = parseUsernames(text.getBytes(StandardCharsets.UTF_8));
-            applyListAndMaybeCompute(chatId, usernames);
+            try {
+                applyListAndMaybeCompute(chatId, parseUsernames(text));
+            } catch (IOException e) {
+                outbox.send(new SendMessage(chatId, "Не удалось обработать список: " + e.getMessage()));
+            }
             return;
         }
         if (s != null && s.stage == Stage.WAIT_LOGIN_USERNAME && text != null) {
             s.loginUsername = normalizeUsername(text.trim());
             s.usernameMsgId = msg.messageId();
+            // Сохранённый вход ещё действует — пароль и браузер не нужны
+            String saved = vault.load(chatId, s.loginUsername);
+            if (saved != null && IgStateVault.isLoggedIn(saved)) {
+                s.authState = saved;
+                s.authAccount = s.loginUsername;
+                s.stage = Stage.IDLE;
+                outbox.send(new SendMessage(chatId, "Вход в @" + s.loginUsername + " восстановлен, пароль не нужен. Можно выполнять /scrape <username>. Забыть вход: /logout"));
+                return;
+            }
             s.stage = Stage.WAIT_LOGIN_PASSWORD;
-            bot.execute(new SendMessage(chatId, "Теперь введи пароль (сообщение будет удалено)."));
+            outbox.send(new SendMessage(chatId, "Теперь введи пароль (сообщение будет удалено)."));
             return;
         }
         if (s != null && s.stage == Stage.WAIT_LOGIN_PASSWORD && text != null) {
             String password = text; // не сохраняем в полях
             s.passwordMsgId = msg.messageId();
             if (s.loginUsername == null || s.loginUsername.isBlank()) {
-                bot.execute(new SendMessage(chatId, "Сначала введи username."));
+                outbox.send(new SendMessage(chatId, "Сначала введи username."));
                 return;
             }
             // Пытаемся удалить сообщения с логином/паролем
-            try { if (s.usernameMsgId != null) bot.execute(new DeleteMessage(chatId, s.usernameMsgId)); } catch (Exception ignored) {}
-            try { if (s.passwordMsgId != null) bot.execute(new DeleteMessage(chatId, s.passwordMsgId)); } catch (Exception ignored) {}
-            bot.execute(new SendMessage(chatId, "Выполняю вход, возможно потребуется 2FA."));
-            try {
-                IgPlaywrightLogin.Result res = IgPlaywrightLogin.startLogin(s.loginUsername, password);
-                if (res.handle != null) {
-                    s.pendingLogin = res.handle;
-                    s.stage = Stage.AWAIT_2FA;
-                    bot.execute(new SendMessage(chatId, "Введите код 2FA командой: /2fa 123456"));
-                } else {
-                    s.authCookies = res.cookies;
-                    s.pendingLogin = null;
-                    s.stage = Stage.IDLE;
-                    bot.execute(new SendMessage(chatId, "Логин успешен. Теперь можно выполнять /scrape <username>."));
+            try { if (s.usernameMsgId != null) outbox.send(new DeleteMessage(chatId, s.usernameMsgId)); } catch (Exception ignored) {}
+            try { if (s.passwordMsgId != null) outbox.send(new DeleteMessage(chatId, s.passwordMsgId)); } catch (Exception ignored) {}
+            String loginUsername = s.loginUsername;
+            submitJob(chatId, "login", 0, () -> {
+                outbox.send(new SendMessage(chatId, "Выполняю вход, возможно потребуется 2FA."));
+                IgPlaywrightLogin.Result res = null;
+                Exception error = null;
+                try {
+                    // Истёкший state этого аккаунта всё равно подаём: устройство Instagram уже знакомо
+                    res = IgPlaywrightLogin.startLogin(loginUsername, password, vault.load(chatId, loginUsername));
+                } catch (Exception e) {
+                    error = e;
                 }
-            } catch (IllegalArgumentException e) {
-                s.pendingLogin = null;
-                if ("WRONG_PASSWORD".equals(e.getMessage())) {
-                    // просим ввести заново и username, и пароль
-                    s.loginUsername = null;
-                    s.usernameMsgId = null;
-                    s.passwordMsgId = null;
-                    s.stage = Stage.WAIT_LOGIN_USERNAME;
-                    bot.execute(new SendMessage(chatId, "Неверный пароль. Давай начнём заново: сначала введи username, затем пароль."));
-                } else {
+                IgPlaywrightLogin.Result result = res;
+                Exception failure = error;
+                inChat(chatId, session -> applyLogin(chatId, session, loginUsername, result, failure));
+            }, "Вход отменён. Начни заново: /login");
+            return;
+        }
+
+        // default
+        outbox.send(new SendMessage(chatId, "Не понял. Введи /login для входа и автосбора, /scrape <username> для запуска, или /check для загрузки файлов. /help для справки."));
+    }
+
+    // Итог входа применяется в ящике чата: сессию меняет только он
+    private void applyLogin(Long chatId, Session s, String account, IgPlaywrightLogin.Result res, Exception e) {
+        if (e == null) {
+            if (res.handle != null) {
+                IgPlaywrightLogin.Handle handle = res.handle;
+                ResourceGovernor.Resource ticket = governor.register(ResourceGovernor.Kind.LOGIN_2FA, chatId, "вход @" + account,
+                        governor.twoFaTtlMs(), () -> dispatcher.post(chatId, () -> expire2fa(chatId, handle)), handle::rssBytes);
+                if (ticket == null) {
+                    Thread.ofVirtual().start(handle::close);
+                    s.pendingLogin = null;
                     s.stage = Stage.IDLE;
-                    bot.execute(new SendMessage(chatId, "Не удалось войти: " + (e.getMessage()==null? e.toString(): e.getMessage())));
+                    outbox.send(new SendMessage(chatId, "Instagram запросил код 2FA, но сейчас слишком много входов ждут код. Повтори /login через пару минут."));
+                    return;
                 }
-            } catch (Exception e) {
+                s.pendingLogin = handle;
+                s.pendingLoginTicket = ticket;
+                s.stage = Stage.AWAIT_2FA;
+                outbox.send(new SendMessage(chatId, "Введите код 2FA командой: /2fa 123456 (в течение " + governor.twoFaTtlMs() / 60_000 + " мин)"));
+            } else {
+                rememberLogin(chatId, s, account, res);
                 s.pendingLogin = null;
                 s.stage = Stage.IDLE;
-                bot.execute(new SendMessage(chatId, "Не удалось войти: " + (e.getMessage()==null? e.toString(): e.getMessage())));
+                outbox.send(new SendMessage(chatId, "Логин успешен. Теперь можно выполнять /scrape <username>."));
             }
             return;
         }
+        s.pendingLogin = null;
+        if (e instanceof IllegalArgumentException && "WRONG_PASSWORD".equals(e.getMessage())) {
+            // просим ввести заново и username, и пароль
+            s.loginUsername = null;
+            s.usernameMsgId = null;
+            s.passwordMsgId = null;
+            s.stage = Stage.WAIT_LOGIN_USERNAME;
+            outbox.send(new SendMessage(chatId, "Неверный пароль. Давай начнём заново: сначала введи username, затем пароль."));
+            return;
+        }
+        s.stage = Stage.IDLE;
+        if (isCancelled(e)) return;
+        if (e instanceof IgBrowserPool.BusyException) {
+            outbox.send(new SendMessage(chatId, "Все браузеры сейчас заняты (идут сборы или другие входы ждут код 2FA). Повтори /login через несколько минут."));
+            return;
+        }
+        outbox.send(new SendMessage(chatId, "Не удалось войти: " + (e.getMessage()==null? e.toString(): e.getMessage())));
+    }
 
-        // default
-        bot.execute(new SendMessage(chatId, "Не понял. Введи /login для входа и автосбора, /scrape <username> для запуска, или /check для загрузки файлов. /help для справки."));
+    // Срок ожидания кода вышел: ресурс уже снят с учёта, браузер закрываем здесь в любом случае
+    private void expire2fa(Long chatId, IgPlaywrightLogin.Handle handle) {
+        Session s = sessions.get(chatId);
+        if (s != null && s.pendingLogin == handle) {
+            s.pendingLogin = null;
+            s.pendingLoginTicket = null;
+            s.stage = Stage.IDLE;
+            outbox.send(new SendMessage(chatId, "Код 2FA не пришёл за " + governor.twoFaTtlMs() / 60_000 + " мин — вход отменён, браузер закрыт. Начни заново: /login"));
+        }
+        Thread.ofVirtual().start(handle::close);
+    }
+
+    private void dropPendingLogin(Session s) {
+        IgPlaywrightLogin.Handle handle = s.pendingLogin;
+        if (handle != null && governor.release(s.pendingLoginTicket)) Thread.ofVirtual().start(handle::close);
+        s.pendingLogin = null;
+        s.pendingLoginTicket = null;
+    }
+
+    private void jobTimedOut(long chatId, String label, long ranMs) {
+        outbox.send(new SendMessage(chatId, "Задача «" + label + "» остановлена: работала " + ranMs / 60_000 + " мин при лимите "
+                + governor.jobBudgetMs() / 60_000 + " мин."));
+    }
+
+    private String resourcesText() {
+        StringBuilder sb = new StringBuilder(governor.report());
+        IgBrowserPool pool = IgBrowserPool.shared();
+        List<String> browsers = pool.describe();
+        sb.append("Браузеры пула: ").append(browsers.size()).append("/").append(pool.size()).append("\n");
+        for (String b : browsers) sb.append("  ").append(b).append("\n");
+        Runtime rt = Runtime.getRuntime();
+        sb.append("JVM heap: ").append(IgBrowserPool.formatMb(rt.totalMemory() - rt.freeMemory()))
+          .append(" из ").append(IgBrowserPool.formatMb(rt.maxMemory())).append("\n");
+        sb.append("Процесс бота с браузерами: ").append(IgBrowserPool.formatMb(IgBrowserPool.rssTree(ProcessHandle.current())));
+        return sb.toString();
+    }
+
+    // Вход сохраняется в хранилище: следующий /login этого аккаунта и сборы после перезапуска обойдутся без пароля
+    private void rememberLogin(Long chatId, Session s, String account, IgPlaywrightLogin.Result res) {
+        s.authState = res.storageState != null ? res.storageState : IgStateVault.stateFromCookies(res.cookies);
+        s.authAccount = account;
+        if (account != null && res.storageState != null) vault.save(chatId, account, res.storageState);
+    }
+
+    // Вход текущей сессии, а если его нет (сессию выгрузили, бот перезапускался) — последний годный из хранилища
+    private String authState(Long chatId, Session s) {
+        if (s != null && s.authState != null) return s.authState;
+        return vault.latest(chatId);
     }
 
     private void handleDocument(Long chatId, Document doc) {
-        Session s = sessions.computeIfAbsent(chatId, k -> new Session());
+        Session s = session(chatId);
         if (s.stage == Stage.IDLE) {
-            bot.execute(new SendMessage(chatId, "Сначала введи /check или /scrape, чтобы начать сессию."));
+            outbox.send(new SendMessage(chatId, "Сначала введи /check или /scrape, чтобы начать сессию."));
             return;
         }
-        try {
-            byte[] bytes = downloadTelegramFile(doc.fileId());
+        // Размер и тип известны из самого апдейта — заведомо неподходящий файл даже не качаем
+        String rejected = TextLines.precheck(doc.fileSize(), doc.mimeType());
+        if (rejected != null) {
+            outbox.send(new SendMessage(chatId, "Не удалось обработать файл: " + rejected));
+            return;
+        }
+        try (InputStream in = openTelegramFile(doc.fileId())) {
             if (s.stage == Stage.WAIT_COOKIES) {
-                Set<AppCookie> cookies = CookieLoader.parse(bytes);
+                Set<AppCookie> cookies = CookieLoader.parse(in);
                 if (cookies.isEmpty()) {
-                    bot.execute(new SendMessage(chatId, "Не удалось прочитать cookies. Убедись в корректном формате."));
+                    outbox.send(new SendMessage(chatId, "Не удалось прочитать cookies. Убедись в корректном формате."));
                     return;
                 }
-                runScrape(chatId, s, cookies);
+                // Запоминаем на время сессии: ими же пользуются повторные /scrape и /watch
+                s.authState = IgStateVault.stateFromCookies(cookies);
+                runScrape(chatId, s, s.authState);
                 return;
             }
-            Set<String> usernames = parseUsernames(bytes);
+            UsernameSet usernames = parseUsernames(in);
             applyListAndMaybeCompute(chatId, usernames);
         } catch (Exception e) {
-            bot.execute(new SendMessage(chatId, "Не удалось обработать файл: " + e.getMessage()));
+            outbox.send(new SendMessage(chatId, "Не удалось обработать файл: " + e.getMessage()));
         }
     }
 
-    private void runScrape(Long chatId, Session s, Set<AppCookie> cookies) {
+    private void runScrape(Long chatId, Session s, String authState) {
         if (s.scrapeUsername == null || s.scrapeUsername.isBlank()) {
-            bot.execute(new SendMessage(chatId, "Сначала укажи username: /scrape <username>."));
+            outbox.send(new SendMessage(chatId, "Сначала укажи username: /scrape <username>."));
             return;
         }
-        bot.execute(new SendMessage(chatId, "Начинаю сбор followers/following для @" + s.scrapeUsername + ". Это может занять несколько минут."));
+        String username = s.scrapeUsername;
+        boolean delta = s.scrapeDelta;
+        boolean fresh = s.scrapeFresh;
+        // Очередь берёт первыми маленькие аккаунты; размер известен по шапке профиля с прошлого сбора
+        Integer size = IgPlaywrightScraper.lastHeaderSize(username);
+        submitJob(chatId, "scrape @" + username, size == null ? BrowserJobScheduler.UNKNOWN_COST : size,
+                () -> scrapeJob(chatId, username, delta, fresh, authState),
+                "Сбор для @" + username + " отменён.");
+    }
+
+    private void deliverCached(Long chatId, Session s, String username, ScrapeCache.Entry cached) {
+        long ageMin = (System.currentTimeMillis() - cached.createdAt) / 60_000L;
+        outbox.send(new SendMessage(chatId, "Результат для @" + username + " из кэша (собран " + ageMin + " мин назад). Для нового сбора: /scrape " + username + " fresh"));
+        deliverScrape(chatId, s, username, cached.pair);
+    }
+
+    // Выполняется в потоке очереди браузерных задач; в сессию результат попадает через ящик чата
+    private void scrapeJob(Long chatId, String username, boolean delta, boolean fresh, String authState) {
         try {
+            // fresh — собрать заново: готовый или прерванный прошлый сбор из чекпоинта не подхватываем
+            if (fresh) IgScrapeCheckpoint.discard(username);
+            IgPlaywrightScraper.Pair previous = delta ? snapshots.loadLatest(chatId, username) : null;
+            // Это сообщение дальше редактируется по ходу сбора
+            ScrapeProgressMessage progress = ScrapeProgressMessage.start(outbox, chatId, previous != null
+                    ? "Дособираю изменения для @" + username + " относительно прошлого снимка."
+                    : "Начинаю сбор followers/following для @" + username + ". Это может занять несколько минут.");
             // Prefer Playwright (cross-platform, bundled browsers)
-            IgPlaywrightScraper.Pair p = IgPlaywrightScraper.fetchAll(s.scrapeUsername, cookies);
-            s.followers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-            s.followers.addAll(p.followers);
-            s.following = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-            s.following.addAll(p.following);
-            // убрать самого пользователя из обоих множеств, если встретился в списках
-            if (s.scrapeUsername != null && !s.scrapeUsername.isBlank()) {
-                String me = s.scrapeUsername.toLowerCase(Locale.ROOT);
-                s.followers.remove(me);
-                s.following.remove(me);
+            IgPlaywrightScraper.Pair p = IgPlaywrightScraper.fetchAllWithState(username, authState, previous, progress);
+            // Неполный сбор не кэшируем, а в истории он помечается и в /diff не участвует
+            if (p.complete) scrapeCache.put(chatId, username, p);
+            snapshots.save(chatId, username, p);
+            if (Thread.currentThread().isInterrupted()) return; // отменили уже после сбора
+            if (!p.complete) {
+                outbox.send(new SendMessage(chatId, "Списки @" + username + " собраны не полностью (followers " + p.followers.size()
+                        + ", following " + p.following.size() + "): Instagram перестал отдавать строки. Результат ниже неточный; повтори /scrape " + username + " позже — сбор продолжится с места остановки."));
             }
-            s.stage = Stage.IDLE;
-            computeAndRespond(chatId, s);
+            inChat(chatId, session -> deliverScrape(chatId, session, username, p));
         } catch (Exception ex) {
-            bot.execute(new SendMessage(chatId, "Ошибка скрейпинга: " + (ex.getMessage() == null ? ex.toString() : ex.getMessage())));
+            if (isCancelled(ex)) return;
+            if (ex instanceof IgBrowserPool.BusyException) {
+                outbox.send(new SendMessage(chatId, "Все браузеры сейчас заняты (идут другие сборы или входы ждут код 2FA). Повтори /scrape " + username + " через несколько минут."));
+                return;
+            }
+            outbox.send(new SendMessage(chatId, "Ошибка скрейпинга: " + (ex.getMessage() == null ? ex.toString() : ex.getMessage())));
         }
     }
 
-    private void applyListAndMaybeCompute(Long chatId, Set<String> usernames) {
+    // Запуск пересбора по подписке: вход берётся из сессии чата или хранилища, сам сбор — обычной браузерной задачей
+    private void launchWatch(WatchScheduler.Watch w, Consumer<WatchScheduler.Outcome> done) {
+        dispatcher.post(w.chatId, () -> {
+            String state = authState(w.chatId, sessions.get(w.chatId));
+            if (state == null) {
+                if (w.failures() == 0) outbox.send(new SendMessage(w.chatId, "Наблюдение за @" + w.username + ": нет входа в Instagram. Выполни /login — до тех пор сборы откладываются."));
+                done.accept(WatchScheduler.Outcome.FAILED);
+                return;
+            }
+            Integer size = IgPlaywrightScraper.lastHeaderSize(w.username);
+            BrowserJobScheduler.Ticket t = jobs.submit(w.chatId, "watch @" + w.username, size == null ? BrowserJobScheduler.UNKNOWN_COST : size,
+                    () -> done.accept(watchJob(w, state)), () -> done.accept(WatchScheduler.Outcome.SKIPPED));
+            if (t == null) done.accept(WatchScheduler.Outcome.BUSY);
+        });
+    }
+
+    // Дельта-сбор относительно прошлого снимка; в чат пишем, только если что-то поменялось.
+    // Изменения считаются с прошлого полного пересбора этой подписки, а не с ручного /scrape того же аккаунта
+    private WatchScheduler.Outcome watchJob(WatchScheduler.Watch w, String authState) {
+        try {
+            IgPlaywrightScraper.Pair previous = snapshots.loadLatest(w.chatId, w.username);
+            IgPlaywrightScraper.Pair p = IgPlaywrightScraper.fetchAllWithState(w.username, authState, previous, IgScrapeProgress.NONE);
+            if (p.complete) scrapeCache.put(w.chatId, w.username, p);
+            snapshots.save(w.chatId, w.username, p);
+            // Неполный сбор в истории только помечен — о нём не пишем, изменения покажет следующий полный
+            if (!p.complete) return WatchScheduler.Outcome.PARTIAL;
+            if (previous == null) return WatchScheduler.Outcome.OK; // первый снимок — сравнивать не с чем
+            SnapshotStore.Diff d = snapshots.diff(w.chatId, w.username, w.lastRunAt() > 0 ? w.lastRunAt() : -1);
+            if (d != null && !d.isEmpty()) outbox.send(new SendMessage(w.chatId, "Наблюдение. " + diffText(w.username, d)));
+            return WatchScheduler.Outcome.OK;
+        } catch (Exception ex) {
+            // Остановка по лимиту времени (и убитые следом браузеры) — сбой, иначе зависающий аккаунт
+            // перезапускался бы по интервалу без паузы; о самой остановке чат уже предупреждён
+            if (isCancelled(ex)) return jobs.timedOut(w.chatId) ? WatchScheduler.Outcome.FAILED : WatchScheduler.Outcome.SKIPPED;
+            if (ex instanceof IgBrowserPool.BusyException) return WatchScheduler.Outcome.BUSY; // повторим чуть позже
+            if (w.failures() == 0) {
+                outbox.send(new SendMessage(w.chatId, "Наблюдение за @" + w.username + ": ошибка сбора (" + (ex.getMessage() == null ? ex.toString() : ex.getMessage()) + "). Повторю позже."));
+            }
+            return WatchScheduler.Outcome.FAILED;
+        }
+    }
+
+    private void deliverScrape(Long chatId, Session s, String username, IgPlaywrightScraper.Pair p) {
+        // убрать самого пользователя из обоих множеств, если встретился в списках
+        String me = username.toLowerCase(Locale.ROOT);
+        s.followers = withoutSelf(p.followers, me);
+        s.following = withoutSelf(p.following, me);
+        s.stage = Stage.IDLE;
+        computeAndRespond(chatId, s);
+    }
+
+    private static UsernameSet withoutSelf(Set<String> names, String me) {
+        if (!names.contains(me)) return UsernameSet.of(names);
+        List<String> rest = new ArrayList<>(names.size());
+        for (String u : names) if (!u.equalsIgnoreCase(me)) rest.add(u);
+        return UsernameSet.of(rest);
+    }
+
+    private void inChat(Long chatId, Consumer<Session> action) {
+        dispatcher.post(chatId, () -> action.accept(session(chatId)));
+    }
+
+    // Сессия чата; выгруженная по простою поднимается с диска. Вызывается только из ящика чата
+    private Session session(Long chatId) {
+        Session s = sessions.computeIfAbsent(chatId, this::restoreSession);
+        s.lastActive = System.currentTimeMillis();
+        return s;
+    }
+
+    private Session restoreSession(Long chatId) {
+        Session s = new Session();
+        SessionStore.Saved saved = sessionStore.take(chatId);
+        if (saved != null) {
+            try { s.format = ResultFormat.valueOf(saved.format); } catch (IllegalArgumentException ignored) {}
+            s.followers = saved.followers;
+            s.following = saved.following;
+        }
+        return s;
+    }
+
+    // Раз в минуту (или чаще при коротком IG_SESSION_IDLE_MIN) проверка простаивающих сессий;
+    // сама выгрузка идёт через ящик чата, чтобы не гоняться с его апдейтами
+    private void sweepSessions() {
+        long period = Math.max(1_000, Math.min(60_000, sessionIdleMs / 4));
+        while (true) {
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Long, Session> e : sessions.entrySet()) {
+                if (now - e.getValue().lastActive > sessionIdleMs) dispatcher.post(e.getKey(), () -> evictIfIdle(e.getKey()));
+            }
+        }
+    }
+
+    private void evictIfIdle(Long chatId) {
+        Session s = sessions.get(chatId);
+        if (s == null || System.currentTimeMillis() - s.lastActive <= sessionIdleMs) return;
+        // Идущий вход или браузерная задача ещё вернутся в сессию — такую не трогаем;
+        // присланные cookies чата с подписками /watch нужны пересборам, поэтому и его сессия остаётся
+        // (вход через /login лежит в IgStateVault и переживает выгрузку)
+        if (s.pendingLogin != null || jobs.hasJob(chatId)) return;
+        if (s.authState != null && s.authAccount == null && watches.hasWatches(chatId)) return;
+        sessions.remove(chatId);
+        if (s.followers != null || s.following != null || s.format != ResultFormat.AUTO) {
+            sessionStore.save(chatId, s.format.name(), s.followers, s.following);
+        }
+    }
+
+    // Поставить браузерную задачу в очередь и сразу ответить позицией; cancelText уходит в чат при /cancel
+    private void submitJob(Long chatId, String label, long cost, Runnable task, String cancelText) {
+        BrowserJobScheduler.Ticket t = jobs.submit(chatId, label, cost, task, () -> outbox.send(new SendMessage(chatId, cancelText)));
+        if (t == null) {
+            outbox.send(new SendMessage(chatId, busyText(chatId)));
+        } else if (t.etaMs > 0) {
+            outbox.send(new SendMessage(chatId, "Задача в очереди: " + t.position + "-я, ожидание ≈ " + etaMinutes(t.etaMs) + " мин. /cancel — отменить."));
+        }
+    }
+
+    // Где сейчас задача чата — с пересчитанными позицией и ожиданием; null — задачи нет
+    private String jobStatusText(long chatId) {
+        BrowserJobScheduler.Ticket t = jobs.status(chatId);
+        if (t == null) return null;
+        if (t.position == 0) return "выполняется";
+        return t.position + "-я в очереди" + (t.etaMs > 0 ? ", ожидание ≈ " + etaMinutes(t.etaMs) + " мин" : ", скоро начнётся");
+    }
+
+    private static long etaMinutes(long etaMs) {
+        return Math.max(1, (etaMs + 59_999) / 60_000);
+    }
+
+    private static boolean isCancelled(Exception e) {
+        return e instanceof CancellationException || Thread.currentThread().isInterrupted();
+    }
+
+    // "7d", "24h", "2w" — назад от текущего момента; "2024-05-01" — с начала дня; null — не разобрали
+    private static Long parseSince(String s) {
+        Long ago = parseDurationMs(s);
+        if (ago != null) return System.currentTimeMillis() - ago;
+        try {
+            return LocalDate.parse(s).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // "30m", "12h", "1d", "2w"; null — не разобрали
+    private static Long parseDurationMs(String s) {
+        try {
+            char unit = Character.toLowerCase(s.charAt(s.length() - 1));
+            long unitMs = unit == 'm' ? 60_000L : unit == 'h' ? 3_600_000L : unit == 'd' ? 86_400_000L : unit == 'w' ? 7 * 86_400_000L : 0;
+            long n = Long.parseLong(s.substring(0, s.length() - 1));
+            return unitMs > 0 && n > 0 ? n * unitMs : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String formatDuration(long ms) {
+        if (ms % 86_400_000L == 0) return ms / 86_400_000L + " д";
+        if (ms % 3_600_000L == 0) return ms / 3_600_000L + " ч";
+        return ms / 60_000L + " мин";
+    }
+
+    private static String formatTime(long ms) {
+        return DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm").withZone(ZoneId.systemDefault()).format(Instant.ofEpochMilli(ms));
+    }
+
+    private String watchListText(long chatId) {
+        List<WatchScheduler.Watch> mine = watches.list(chatId);
+        if (mine.isEmpty()) return "Подписок нет. Добавить: /watch <username> <интервал>";
+        StringBuilder sb = new StringBuilder("Подписки:");
+        for (WatchScheduler.Watch w : mine) {
+            sb.append("\n@").append(w.username).append(" — каждые ").append(formatDuration(w.intervalMs))
+                    .append(", следующий сбор ").append(formatTime(w.nextRunAt()));
+            if (w.failures() > 0) sb.append(" (ошибок подряд: ").append(w.failures()).append(")");
+        }
+        return sb.toString();
+    }
+
+    private static String diffText(String user, SnapshotStore.Diff d) {
+        return "Изменения @" + user + " с " + formatTime(d.fromMs) + " по " + formatTime(d.toMs)
+                + " (сборов: " + d.snapshots + ")\n"
+                + "Новые подписчики: " + nameList(d.gainedFollowers) + "\n"
+                + "Отписались: " + nameList(d.lostFollowers) + "\n"
+                + "Новые подписки: " + nameList(d.gainedFollowing) + "\n"
+                + "Убранные подписки: " + nameList(d.lostFollowing);
+    }
+
+    private static String nameList(List<String> names) {
+        if (names.isEmpty()) return "нет";
+        int shown = Math.min(names.size(), 30);
+        String head = names.size() + " — " + String.join(", ", names.subList(0, shown));
+        return shown < names.size() ? head + " … и ещё " + (names.size() - shown) : head;
+    }
+
+    private String busyText(long chatId) {
+        String status = jobStatusText(chatId);
+        return "Предыдущая задача " + (status == null ? "ещё в работе или в очереди" : status) + ". Дождись результата или отмени её: /cancel";
+    }
+
+    private void applyListAndMaybeCompute(Long chatId, UsernameSet usernames) {
         Session s = sessions.get(chatId);
         if (s == null) {
-            bot.execute(new SendMessage(chatId, "Сессия не найдена. Введи /check."));
+            outbox.send(new SendMessage(chatId, "Сессия не найдена. Введи /check."));
             return;
         }
         if (s.stage == Stage.WAIT_FOLLOWERS) {
             s.followers = usernames;
             s.stage = Stage.WAIT_FOLLOWING;
-            bot.execute(new SendMessage(chatId, "Принял список подписчиков. Теперь пришли файл с подписками (following)."));
+            outbox.send(new SendMessage(chatId, "Принял список подписчиков. Теперь пришли файл с подписками (following)."));
             return;
         }
         if (s.stage == Stage.WAIT_FOLLOWING) {
@@ -339,78 +893,98 @@ public class TelegramBotService {
             computeAndRespond(chatId, s);
             return;
         }
-        bot.execute(new SendMessage(chatId, "Неожиданный этап. Введи /check, чтобы начать заново."));
+        outbox.send(new SendMessage(chatId, "Неожиданный этап. Введи /check, чтобы начать заново."));
     }
 
     private void computeAndRespond(Long chatId, Session s) {
         if (s.followers == null || s.following == null) {
-            bot.execute(new SendMessage(chatId, "Нужны оба списка: followers и following."));
+            outbox.send(new SendMessage(chatId, "Нужны оба списка: followers и following."));
             return;
         }
         MutualsService.Result r = MutualsService.compute(s.followers, s.following);
         String summary = String.format(Locale.ROOT,
                 "Всего followers: %d\nВсего following: %d\nВзаимные: %d\nНе взаимные (ты подписан, они нет): %d\nНе взаимные (они подписаны, ты нет): %d",
                 s.followers.size(), s.following.size(), r.mutuals.size(), r.notFollowingBack.size(), r.notFollowedByYou.size());
-        bot.execute(new SendMessage(chatId, summary));
+        outbox.send(new SendMessage(chatId, summary));
 
-        try {
-            // Prepare files if lists are big
-            sendListAsFile(chatId, r.mutuals, "mutuals.txt");
-            sendListAsFile(chatId, r.notFollowingBack, "not_following_back.txt");
-            sendListAsFile(chatId, r.notFollowedByYou, "not_followed_by_you.txt");
-        } catch (IOException e) {
-            bot.execute(new SendMessage(chatId, "Ошибка при отправке файлов: " + e.getMessage()));
+        // Большие результаты (или по /format zip) — одним архивом с txt, csv и json
+        boolean zip = s.format == ResultFormat.ZIP
+                || (s.format == ResultFormat.AUTO && ResultFiles.textBytes(r) > getenvInt("IG_ZIP_THRESHOLD_KB", 512) * 1024L);
+        if (zip) {
+            outbox.send(new SendDocument(chatId, ResultFiles.zip(r)).fileName("results.zip"));
+            return;
         }
+        sendListAsFile(chatId, r.mutuals, ResultFiles.MUTUALS + ".txt");
+        sendListAsFile(chatId, r.notFollowingBack, ResultFiles.NOT_FOLLOWING_BACK + ".txt");
+        sendListAsFile(chatId, r.notFollowedByYou, ResultFiles.NOT_FOLLOWED_BY_YOU + ".txt");
     }
 
-    private void sendListAsFile(Long chatId, List<String> list, String filename) throws IOException {
+    private void sendListAsFile(Long chatId, List<String> list, String filename) {
         if (list.isEmpty()) {
-            bot.execute(new SendMessage(chatId, filename + ": пусто"));
+            outbox.send(new SendMessage(chatId, filename + ": пусто"));
             return;
         }
-        Path tmp = Files.createTempFile(filename.replace('.','_'), ".txt");
-        Files.writeString(tmp, String.join("\n", list), StandardCharsets.UTF_8);
-        bot.execute(new SendDocument(chatId, tmp.toFile()).fileName(filename));
-        try { Files.deleteIfExists(tmp); } catch (Exception ignored) {}
+        outbox.send(new SendDocument(chatId, ResultFiles.text(list)).fileName(filename));
     }
 
-    private byte[] downloadTelegramFile(String fileId) throws IOException, InterruptedException {
+    // Тело ответа отдаётся потоком: файл разбирается по мере скачивания, целиком в память не попадает
+    private InputStream openTelegramFile(String fileId) throws IOException, InterruptedException {
         GetFileResponse resp = bot.execute(new GetFile(fileId));
         if (!resp.isOk()) throw new IOException("GetFile failed: " + resp.errorCode() + " " + resp.description());
         String filePath = resp.file().filePath();
         String token = bot.getToken();
         String url = "https://api.telegram.org/file/bot" + token + "/" + filePath;
         HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
-        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
-        if (response.statusCode() != 200) throw new IOException("Download failed: status " + response.statusCode());
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Download failed: status " + response.statusCode());
+        }
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (length > TextLines.MAX_BYTES) {
+            response.body().close();
+            throw new TextLines.RejectedException("файл больше " + TextLines.MAX_BYTES / 1024 + " КБ");
+        }
         return response.body();
     }
 
-    private static Set<String> parseUsernames(byte[] bytes) {
-        String s = new String(bytes, StandardCharsets.UTF_8);
-        return Arrays.stream(s.replace("\r", "\n").split("\n"))
-                .map(String::trim)
-                .filter(line -> !line.isEmpty())
-                .map(TelegramBotService::normalizeUsername)
-                .filter(name -> !name.isEmpty())
-                .collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
+    private static UsernameSet parseUsernames(InputStream in) throws IOException {
+        List<String> out = new ArrayList<>();
+        TextLines.forEach(in, line -> addUsername(out, line));
+        return UsernameSet.of(out);
+    }
+
+    private static UsernameSet parseUsernames(String text) throws IOException {
+        List<String> out = new ArrayList<>();
+        TextLines.forEach(new StringReader(text), line -> addUsername(out, line));
+        return UsernameSet.of(out);
+    }
+
+    private static void addUsername(List<String> out, String line) {
+        String name = normalizeUsername(line.trim());
+        if (!name.isEmpty()) out.add(name);
     }
 
     private static String normalizeUsername(String s) {
-        String t = s;
-        if (t.startsWith("@")) t = t.substring(1);
-        t = t.toLowerCase(Locale.ROOT).replace(" ", "");
-        // strip URL forms like https://instagram.com/username
-        if (t.contains("instagram.com/")) {
-            int i = t.indexOf("instagram.com/");
-            t = t.substring(i + "instagram.com/".length());
-            int q = t.indexOf('?');
-            if (q >= 0) t = t.substring(0, q);
-            t = t.replaceAll("[^a-z0-9._]", "");
-        }
-        // keep only allowed chars
-        t = t.replaceAll("[^a-z0-9._]", "");
-        return t;
+        return UsernameCodec.fromInput(s);
+    }
+
+    private static Set<Long> parseChatIds(String v) {
+        Set<Long> out = new HashSet<>();
+        if (v == null) return out;
+        for (String p : v.split("[,\\s]+")) {
+            try { if (!p.isBlank()) out.add(Long.parseLong(p.trim())); } catch (NumberFormatException ignored) {}
+        }
+        return out;
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
     }
 
     private static String startText() {
@@ -425,7 +999,13 @@ public class TelegramBotService {
         return "Команды:\n" +
                "/login — вход в Instagram (затем /2fa при запросе)\n" +
                "/2fa <код> — отправить код двухфакторной аутентификации\n" +
-               "/scrape <username> — автоматически собрать followers/following и сравнить\n" +
+               "/logout — забыть сохранённый вход (следующий /login спросит пароль)\n" +
+               "/scrape <username> [fresh] [delta] — автоматически собрать followers/following и сравнить (fresh — без кэша, delta — только новое с прошлого сбора)\n" +
+               "/format <auto|txt|zip> — результат тремя .txt или одним архивом (auto — архив для больших списков)\n" +
+               "/diff <username> [7d|2024-05-01] — кто подписался и отписался с прошлого сбора или за период\n" +
+               "/watch <username> <12h|1d> — следить и писать, когда кто-то подписался или отписался; /watch — список, /unwatch <username> — снять\n" +
+               "/cancel — отменить задачу в очереди или текущий сбор\n" +
+               "/stats — где твоя задача в очереди, очередь задач, статистика кэша результатов и стратегий сбора\n" +
                "/check — ручной режим: загрузка списков файлами/текстом\n" +
                "/help — помощь\n\n" +
                "В ручном режиме присылай .txt/.csv или текст: по одному нику в строке.";
@@ -0,0 +1,314 @@
+package com.example.igbot;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.EditMessageText;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.BaseResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная очередь исходящих запросов к Telegram (сообщения, документы, правки, удаления).
+ * Запросы уходят через асинхронный execute библиотеки с колбэком; вызывающий поток не ждёт сеть.
+ *
+ * Ограничения: общий token bucket (IG_TG_GLOBAL_RPS, по умолчанию 30 запросов/с) и по bucket на чат
+ * (IG_TG_CHAT_RPS, по умолчанию 1/с с запасом в 3 запроса). В каждом чате одновременно в полёте
+ * не больше одного запроса, поэтому порядок сообщений сохраняется. На 429 на паузу retry_after ставится
+ * вся отправка (лимит у Telegram на бота, а не только на чат) и запрос повторяется; сетевые ошибки
+ * повторяются с нарастающей паузой. Сам execute вызывается вне монитора очереди: медленный вызов
+ * не держит send(), а исключение из него считается сетевой ошибкой этого запроса и не роняет поток отправки.
+ * Идущие подряд простые тексты в один чат склеиваются в одно сообщение, а подряд идущие правки
+ * одного сообщения — в последнюю.
+ */
+public class TelegramOutbox {
+    private static final Logger log = LoggerFactory.getLogger(TelegramOutbox.class);
+
+    private static final int MAX_TEXT = 4096;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int LATENCY_WINDOW = 1024;
+
+    private static class TokenBucket {
+        final double ratePerMs;
+        final double burst;
+        double tokens;
+        long last;
+
+        TokenBucket(double perSecond, double burst, long now) {
+            this.ratePerMs = perSecond / 1000.0;
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = now;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - last) * ratePerMs);
+            last = now;
+        }
+
+        /** Через сколько мс появится целый токен (0 — уже есть). */
+        long waitMs(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerMs);
+        }
+
+        void take() { tokens -= 1; }
+    }
+
+    private static class Item {
+        BaseRequest<?, ?> request;
+        final List<CompletableFuture<BaseResponse>> futures = new ArrayList<>(1);
+        final long enqueuedAt = System.currentTimeMillis();
+        boolean standalone;
+        int attempts;
+    }
+
+    private static class Dispatch {
+        final ChatQueue queue;
+        final Item item;
+
+        Dispatch(ChatQueue queue, Item item) { this.queue = queue; this.item = item; }
+    }
+
+    private static class ChatQueue {
+        final Deque<Item> items = new ArrayDeque<>();
+        final TokenBucket bucket;
+        long pausedUntil;
+        boolean inFlight;
+
+        ChatQueue(TokenBucket bucket) { this.bucket = bucket; }
+    }
+
+    private final TelegramBot bot;
+    private final double chatRps;
+    private final TokenBucket global;
+    private long globalPausedUntil; // после 429
+    private final Map<Object, ChatQueue> chats = new LinkedHashMap<>();
+    private final Thread pump;
+    private int queued;
+    private int inFlight;
+    private boolean closed;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public TelegramOutbox(TelegramBot bot, double globalRps, double chatRps) {
+        this.bot = bot;
+        this.chatRps = chatRps;
+        this.global = new TokenBucket(globalRps, globalRps, System.currentTimeMillis());
+        this.pump = Thread.ofVirtual().name("tg-outbox").start(this::pumpLoop);
+    }
+
+    public static TelegramOutbox fromEnv(TelegramBot bot) {
+        return new TelegramOutbox(bot, getenvDouble("IG_TG_GLOBAL_RPS", 30), getenvDouble("IG_TG_CHAT_RPS", 1));
+    }
+
+    /** Поставить запрос в очередь его чата; future завершится ответом Telegram (или исключением после всех попыток). */
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> send(T request) {
+        return enqueue(request, false);
+    }
+
+    /** То же, но без склейки с соседними сообщениями — например, если потом сообщение будет редактироваться. */
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> sendStandalone(T request) {
+        return enqueue(request, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> enqueue(T request, boolean standalone) {
+        CompletableFuture<BaseResponse> f = new CompletableFuture<>();
+        Object chat = request.getParameters().get("chat_id");
+        synchronized (this) {
+            if (closed) {
+                f.completeExceptionally(new IllegalStateException("Outbox закрыт"));
+                return (CompletableFuture<R>) (CompletableFuture<?>) f;
+            }
+            ChatQueue q = chats.computeIfAbsent(chat == null ? "" : chat.toString(),
+                    k -> new ChatQueue(new TokenBucket(chatRps, Math.max(1, chatRps * 3), System.currentTimeMillis())));
+            Item tail = q.items.peekLast();
+            BaseRequest<?, ?> merged = tail == null || tail.standalone || standalone ? null : coalesce(tail.request, request);
+            if (merged != null) {
+                tail.request = merged;
+                tail.futures.add(f);
+                coalesced.incrementAndGet();
+            } else {
+                Item item = new Item();
+                item.request = request;
+                item.standalone = standalone;
+                item.futures.add(f);
+                q.items.addLast(item);
+                queued++;
+            }
+            notifyAll();
+        }
+        return (CompletableFuture<R>) (CompletableFuture<?>) f;
+    }
+
+    public synchronized String stats() {
+        long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT,
+                "Исходящие в Telegram: в очереди %d, в полёте %d, отправлено %d, склеено %d, 429 %d, ошибок %d\nзадержка p50/p90/p99: %d/%d/%d мс",
+                queued, inFlight, sent.get(), coalesced.get(), throttled.get(), failed.get(),
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99));
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try { pump.join(5000); } catch (InterruptedException ignored) {}
+    }
+
+    // Простые тексты (без разметки и клавиатур) склеиваются, пока влезают в одно сообщение;
+    // новая правка того же сообщения заменяет ещё не отправленную
+    private static BaseRequest<?, ?> coalesce(BaseRequest<?, ?> prev, BaseRequest<?, ?> next) {
+        Map<String, Object> a = prev.getParameters();
+        Map<String, Object> b = next.getParameters();
+        if (prev instanceof SendMessage && next instanceof SendMessage && isPlainText(a) && isPlainText(b)) {
+            String joined = a.get("text") + "\n\n" + b.get("text");
+            return joined.length() <= MAX_TEXT ? new SendMessage(a.get("chat_id"), joined) : null;
+        }
+        if (prev instanceof EditMessageText && next instanceof EditMessageText
+                && Objects.equals(a.get("message_id"), b.get("message_id")) && isPlainText(a) && isPlainText(b)) {
+            return next;
+        }
+        return null;
+    }
+
+    private static boolean isPlainText(Map<String, Object> p) {
+        for (String k : p.keySet()) {
+            if (!k.equals("chat_id") && !k.equals("text") && !k.equals("message_id")) return false;
+        }
+        return p.get("text") instanceof String;
+    }
+
+    private void pumpLoop() {
+        List<Dispatch> ready = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                if (closed && inFlight == 0 && queued == 0) return;
+                long now = System.currentTimeMillis();
+                long wait = dispatchReady(now, ready);
+                if (ready.isEmpty()) {
+                    try {
+                        if (wait == Long.MAX_VALUE) wait(closed ? 100 : 0);
+                        else if (wait > 0) wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            for (Dispatch d : ready) execute(d.queue, d.item);
+            ready.clear();
+        }
+    }
+
+    // Забрать в ready всё, что можно отправить прямо сейчас; вернуть, сколько ждать до следующей возможности
+    private long dispatchReady(long now, List<Dispatch> ready) {
+        if (globalPausedUntil > now) return globalPausedUntil - now;
+        long next = Long.MAX_VALUE;
+        for (Iterator<ChatQueue> it = chats.values().iterator(); it.hasNext(); ) {
+            ChatQueue q = it.next();
+            if (q.inFlight) continue;
+            if (q.items.isEmpty()) {
+                // Простаивающий чат без долга по лимитам больше не нужен
+                if (q.pausedUntil <= now && q.bucket.waitMs(now) == 0 && q.bucket.tokens >= q.bucket.burst) it.remove();
+                continue;
+            }
+            if (q.pausedUntil > now) { next = Math.min(next, q.pausedUntil - now); continue; }
+            long chatWait = q.bucket.waitMs(now);
+            if (chatWait > 0) { next = Math.min(next, chatWait); continue; }
+            long globalWait = global.waitMs(now);
+            if (globalWait > 0) return Math.min(next, globalWait);
+            q.bucket.take();
+            global.take();
+            Item item = q.items.pollFirst();
+            queued--;
+            q.inFlight = true;
+            inFlight++;
+            ready.add(new Dispatch(q, item));
+        }
+        return next;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void execute(ChatQueue q, Item item) {
+        item.attempts++;
+        try {
+            bot.execute((BaseRequest) item.request, new Callback() {
+                @Override
+                public void onResponse(BaseRequest request, BaseResponse response) {
+                    onDone(q, item, response, null);
+                }
+
+                @Override
+                public void onFailure(BaseRequest request, IOException e) {
+                    onDone(q, item, null, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Запрос не ушёл (например, не сериализовался) — как сетевая ошибка: повтор, а потом отказ future
+            onDone(q, item, null, new IOException("execute failed", e));
+        }
+    }
+
+    private void onDone(ChatQueue q, Item item, BaseResponse response, IOException error) {
+        long now = System.currentTimeMillis();
+        boolean retry = false;
+        synchronized (this) {
+            q.inFlight = false;
+            inFlight--;
+            if (response != null && response.errorCode() == 429 && item.attempts < MAX_ATTEMPTS) {
+                Integer after = response.parameters() == null ? null : response.parameters().retryAfter();
+                globalPausedUntil = Math.max(globalPausedUntil, now + (after == null ? 1 : after) * 1000L);
+                throttled.incrementAndGet();
+                retry = true;
+            } else if (error != null && item.attempts < MAX_ATTEMPTS) {
+                q.pausedUntil = now + (500L << item.attempts);
+                retry = true;
+            }
+            if (retry) {
+                q.items.addFirst(item);
+                queued++;
+            } else {
+                latencies[latencyCount++ % LATENCY_WINDOW] = now - item.enqueuedAt;
+            }
+            notifyAll();
+        }
+        if (retry) return;
+        if (response != null) {
+            sent.incrementAndGet();
+            if (!response.isOk()) log.debug("telegram {} -> {} {}", item.request.getMethod(), response.errorCode(), response.description());
+            for (CompletableFuture<BaseResponse> f : item.futures) f.complete(response);
+        } else {
+            failed.incrementAndGet();
+            log.warn("telegram {} failed", item.request.getMethod(), error);
+            for (CompletableFuture<BaseResponse> f : item.futures) f.completeExceptionally(error);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.floor(p * sorted.length))];
+    }
+
+    private static double getenvDouble(String name, double def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Double.parseDouble(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
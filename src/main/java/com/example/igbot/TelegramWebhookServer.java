@@ -0,0 +1,116 @@
+package com.example.igbot;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Приём апдейтов по webhook на встроенном HTTP-сервере JDK (TLS — на обратном прокси перед ним).
+ * Запрос проверяется по заголовку X-Telegram-Bot-Api-Secret-Token, тело разбирается в {@link Update},
+ * Telegram сразу получает 200, а апдейт уходит в тот же обработчик, что и при long polling.
+ * Одновременно обрабатывается не больше maxConcurrent запросов; лишние получают 503, и Telegram повторяет их позже.
+ */
+public class TelegramWebhookServer {
+    private static final Logger log = LoggerFactory.getLogger(TelegramWebhookServer.class);
+
+    private static final int MAX_BODY = 1 << 20;
+
+    private final HttpServer server;
+    private final byte[] secret;
+    private final Semaphore permits;
+    private final Consumer<Update> sink;
+
+    private TelegramWebhookServer(HttpServer server, String secret, int maxConcurrent, Consumer<Update> sink) {
+        this.server = server;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+        this.sink = sink;
+    }
+
+    public static TelegramWebhookServer start(int port, String path, String secret, int maxConcurrent, Consumer<Update> sink) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+        TelegramWebhookServer s = new TelegramWebhookServer(http, secret, maxConcurrent, sink);
+        http.createContext(path == null || path.isEmpty() ? "/" : path, s::handle);
+        http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        http.start();
+        return s;
+    }
+
+    // Фактический порт (при старте с портом 0); для тестов
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                respond(ex, 405);
+                return;
+            }
+            String token = ex.getRequestHeaders().getFirst("X-Telegram-Bot-Api-Secret-Token");
+            if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+                respond(ex, 401);
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                respond(ex, 503);
+                return;
+            }
+            try {
+                byte[] body = readLimited(ex.getRequestBody());
+                if (body == null) {
+                    respond(ex, 413);
+                    return;
+                }
+                Update update;
+                try {
+                    update = BotUtils.parseUpdate(new String(body, StandardCharsets.UTF_8));
+                } catch (Exception e) {
+                    respond(ex, 400);
+                    return;
+                }
+                // Подтверждаем до обработки: иначе Telegram ждёт ответа и держит следующие апдейты
+                respond(ex, 200);
+                if (update != null) sink.accept(update);
+            } finally {
+                permits.release();
+            }
+        } catch (Exception e) {
+            log.warn("webhook request failed", e);
+        }
+    }
+
+    private static byte[] readLimited(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            if (out.size() + n > MAX_BODY) return null;
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange ex, int status) throws IOException {
+        ex.sendResponseHeaders(status, -1);
+        try (OutputStream ignored = ex.getResponseBody()) {}
+    }
+}
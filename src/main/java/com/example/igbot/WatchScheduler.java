@@ -0,0 +1,268 @@
+package com.example.igbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Периодические пересборы по подпискам /watch. Время первого запуска выбирается так, чтобы подписки
+ * расходились по суткам: из нескольких случайных сдвигов внутри интервала берётся самый далёкий от уже
+ * запланированных запусков, а каждый следующий запуск сдвигается на случайные ±10% интервала (не больше 30 мин).
+ * Одновременно в работе не больше IG_WATCH_MAX_CONCURRENT пересборов; после ошибок цель откладывается
+ * с удвоением паузы (15 мин, 30 мин, ... до суток). Подписки хранятся в IG_WATCH_FILE и переживают перезапуск.
+ */
+public class WatchScheduler {
+    private static final Logger log = LoggerFactory.getLogger(WatchScheduler.class);
+
+    private static final long MAX_JITTER_MS = 30 * 60_000L;
+    private static final long BUSY_RETRY_MS = 10 * 60_000L;
+    private static final long BACKOFF_BASE_MS = 15 * 60_000L;
+    private static final long BACKOFF_MAX_MS = 24 * 3_600_000L;
+    private static final int PLACEMENT_CANDIDATES = 8;
+
+    /** Чем закончился запуск. */
+    public enum Outcome {
+        OK,       // собрано; следующий запуск — через интервал
+        PARTIAL,  // собрано не полностью: следующий запуск по интервалу, но точкой отсчёта изменений остаётся прошлый полный сбор
+        SKIPPED,  // отменён пользователем (/cancel) или остановкой бота; ни успехом, ни ошибкой не считается
+        BUSY,     // у чата уже идёт другая задача — повторить чуть позже
+        FAILED    // ошибка сбора, остановка по лимиту времени или нет cookies — пауза с удвоением
+    }
+
+    /** Запускает пересбор; по завершении (в любом потоке) должен вызвать done ровно один раз. */
+    public interface Launcher {
+        void launch(Watch watch, Consumer<Outcome> done);
+    }
+
+    public static class Watch {
+        public final long chatId;
+        public final String username;
+        public final long intervalMs;
+        long nextRunAt;
+        long lastRunAt; // последний полный пересбор этой подписки; 0 — ещё не было
+        int failures;
+        boolean running;
+
+        Watch(long chatId, String username, long intervalMs, long nextRunAt, long lastRunAt, int failures) {
+            this.chatId = chatId; this.username = username; this.intervalMs = intervalMs;
+            this.nextRunAt = nextRunAt; this.lastRunAt = lastRunAt; this.failures = failures;
+        }
+
+        public long nextRunAt() { return nextRunAt; }
+        public long lastRunAt() { return lastRunAt; }
+        public int failures() { return failures; }
+    }
+
+    private final Path file;
+    private final int maxConcurrent;
+    private final Map<String, Watch> watches = new LinkedHashMap<>(); // chatId:username
+    private Launcher launcher;
+    private Thread loop;
+    private int inFlight;
+    private boolean closed;
+
+    public WatchScheduler(Path file, int maxConcurrent) {
+        this.file = file;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        load();
+    }
+
+    public static WatchScheduler fromEnv() {
+        String f = System.getenv("IG_WATCH_FILE");
+        return new WatchScheduler(Paths.get(f == null || f.isBlank() ? "watches.tsv" : f), getenvInt("IG_WATCH_MAX_CONCURRENT", 1));
+    }
+
+    public synchronized void start(Launcher launcher) {
+        this.launcher = launcher;
+        loop = Thread.ofVirtual().name("watch-scheduler").start(this::runLoop);
+    }
+
+    /** Добавить или заменить подписку; возвращает её с выбранным временем первого запуска. */
+    public synchronized Watch add(long chatId, String username, long intervalMs) {
+        watches.remove(key(chatId, username));
+        Watch w = new Watch(chatId, username, intervalMs, place(System.currentTimeMillis(), intervalMs), 0, 0);
+        watches.put(key(chatId, username), w);
+        save();
+        notifyAll();
+        return w;
+    }
+
+    public synchronized boolean remove(long chatId, String username) {
+        boolean removed = watches.remove(key(chatId, username)) != null;
+        if (removed) save();
+        return removed;
+    }
+
+    public synchronized List<Watch> list(long chatId) {
+        List<Watch> out = new ArrayList<>();
+        for (Watch w : watches.values()) if (w.chatId == chatId) out.add(w);
+        out.sort(Comparator.comparingLong(w -> w.nextRunAt));
+        return out;
+    }
+
+    public synchronized boolean hasWatches(long chatId) {
+        for (Watch w : watches.values()) if (w.chatId == chatId) return true;
+        return false;
+    }
+
+    public synchronized String stats() {
+        return String.format(Locale.ROOT, "Наблюдение: подписок %d, пересборов в работе %d/%d", watches.size(), inFlight, maxConcurrent);
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (loop != null) loop.interrupt();
+    }
+
+    private void runLoop() {
+        while (true) {
+            List<Watch> due = new ArrayList<>();
+            synchronized (this) {
+                if (closed) return;
+                long now = System.currentTimeMillis();
+                long next = Long.MAX_VALUE;
+                for (Watch w : watches.values()) {
+                    if (w.running) continue;
+                    if (w.nextRunAt <= now && inFlight + due.size() < maxConcurrent) due.add(w);
+                    else next = Math.min(next, w.nextRunAt);
+                }
+                for (Watch w : due) {
+                    w.running = true;
+                    inFlight++;
+                }
+                if (due.isEmpty()) {
+                    try {
+                        wait(Math.max(1_000, Math.min(60_000, next - now)));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            for (Watch w : due) launch(w);
+        }
+    }
+
+    private void launch(Watch w) {
+        boolean[] called = new boolean[1];
+        try {
+            launcher.launch(w, outcome -> {
+                synchronized (called) {
+                    if (called[0]) return;
+                    called[0] = true;
+                }
+                finished(w, outcome);
+            });
+        } catch (Exception e) {
+            log.warn("watch @{} launch failed", w.username, e);
+            finished(w, Outcome.FAILED);
+        }
+    }
+
+    private synchronized void finished(Watch w, Outcome outcome) {
+        inFlight--;
+        w.running = false;
+        long now = System.currentTimeMillis();
+        switch (outcome) {
+            case OK, PARTIAL -> {
+                if (outcome == Outcome.OK) w.lastRunAt = now;
+                w.failures = 0;
+                w.nextRunAt = Math.max(now, w.nextRunAt + w.intervalMs) + jitter(w.intervalMs);
+            }
+            // Отмена не сбрасывает счётчик ошибок: следующий сбой продолжит удвоение паузы
+            case SKIPPED -> w.nextRunAt = Math.max(now, w.nextRunAt + w.intervalMs) + jitter(w.intervalMs);
+            case BUSY -> w.nextRunAt = now + BUSY_RETRY_MS;
+            case FAILED -> {
+                w.failures++;
+                long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(16, w.failures - 1));
+                w.nextRunAt = now + delay + jitter(delay);
+            }
+        }
+        // Подписку могли удалить или заменить, пока шёл сбор
+        if (watches.get(key(w.chatId, w.username)) == w) save();
+        notifyAll();
+    }
+
+    // Первый запуск: лучший из нескольких случайных сдвигов — самый далёкий от соседних запусков
+    private long place(long now, long intervalMs) {
+        long best = now + ThreadLocalRandom.current().nextLong(Math.max(1, intervalMs));
+        long bestGap = -1;
+        for (int i = 0; i < PLACEMENT_CANDIDATES; i++) {
+            long t = now + ThreadLocalRandom.current().nextLong(Math.max(1, intervalMs));
+            long gap = Long.MAX_VALUE;
+            for (Watch w : watches.values()) gap = Math.min(gap, Math.abs(w.nextRunAt - t));
+            if (gap > bestGap) {
+                best = t;
+                bestGap = gap;
+            }
+        }
+        return best;
+    }
+
+    private static long jitter(long intervalMs) {
+        long span = Math.min(MAX_JITTER_MS, intervalMs / 10);
+        return span <= 0 ? 0 : ThreadLocalRandom.current().nextLong(-span, span + 1);
+    }
+
+    // Формат: chatId \t username \t intervalMs \t nextRunAt \t failures \t lastRunAt
+    private void load() {
+        try {
+            if (!Files.exists(file)) return;
+            long now = System.currentTimeMillis();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] p = line.split("\t");
+                if (p.length < 6) continue;
+                try {
+                    Watch w = new Watch(Long.parseLong(p[0]), p[1], Long.parseLong(p[2]), Long.parseLong(p[3]),
+                            Long.parseLong(p[5]), Integer.parseInt(p[4]));
+                    // Пропущенные за время простоя запуски не стреляют разом, а расходятся по ближайшему часу
+                    if (w.nextRunAt < now) w.nextRunAt = now + ThreadLocalRandom.current().nextLong(Math.max(1, Math.min(w.intervalMs, 3_600_000L)));
+                    watches.put(key(w.chatId, w.username), w);
+                } catch (NumberFormatException ignored) {}
+            }
+        } catch (Exception e) {
+            log.warn("cannot read {}", file, e);
+        }
+    }
+
+    private void save() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Watch x : watches.values()) {
+                    w.write(x.chatId + "\t" + x.username + "\t" + x.intervalMs + "\t" + x.nextRunAt + "\t" + x.failures + "\t" + x.lastRunAt + "\n");
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            log.warn("cannot write {}", file, e);
+        }
+    }
+
+    private static String key(long chatId, String username) {
+        return chatId + ":" + username;
+    }
+
+    private static int getenvInt(String name, int def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.igbot.playwright;
+
+import com.microsoft.playwright.*;
+import com.microsoft.playwright.options.Proxy;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Пул "тёплых" Chromium-процессов, общий для скрейпинга и логина.
+ * Вызывающий код арендует {@link Lease} со свежим {@link BrowserContext}; при возврате контекст
+ * закрывается (куки разных пользователей не смешиваются), а браузер остаётся запущенным.
+ * Упавшие/отключившиеся браузеры и браузеры, отработавшие IG_BROWSER_MAX_USES аренд, пересоздаются.
+ *
+ * Каждая аренда помечается владельцем (см. {@link #setOwner}) — по нему ResourceGovernor считает память
+ * задачи и при зависании принудительно убивает её браузеры: процесс драйвера Playwright вместе с Chromium.
+ *
+ * Свободного браузера ждём не дольше IG_BROWSER_WAIT_SEC, дальше — {@link BusyException}: место могут надолго
+ * занять браузеры, ждущие код 2FA, и задача должна сообщить об этом, а не висеть.
+ *
+ * Настройки (env): IG_BROWSER_POOL_SIZE (по умолчанию — по числу ядер и объёму памяти, см. {@link #defaultSize()}), IG_BROWSER_MAX_USES (по умолчанию 50), IG_BROWSER_WAIT_SEC (по умолчанию 120), IG_HEADLESS, IG_PROXY, IG_DEBUG.
+ */
+public class IgBrowserPool {
+    static final String DESKTOP_UA = "Mozilla/5.0 (Macintosh; Intel Mac OS X 13_5) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36";
+
+    private static volatile IgBrowserPool shared;
+
+    // Владелец аренд текущего потока; наследуется потоками, которые задача создаёт сама (параллельный сбор)
+    private static final InheritableThreadLocal<Object> OWNER = new InheritableThreadLocal<>();
+
+    // Один Playwright-драйвер на браузер: объекты Playwright не потокобезопасны,
+    // а слот в каждый момент времени принадлежит ровно одной аренде.
+    private static class Slot {
+        final Playwright pw;
+        final Browser browser;
+        final ProcessHandle driver; // null — процесс драйвера не удалось определить
+        int uses;
+        Slot(Playwright pw, Browser browser, ProcessHandle driver) { this.pw = pw; this.browser = browser; this.driver = driver; }
+    }
+
+    private final int size;
+    private final int maxUses;
+    private final long waitMs = Math.max(1, getenvInt("IG_BROWSER_WAIT_SEC", 120)) * 1000L;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Slot> idle = new ConcurrentLinkedDeque<>();
+    private final List<Slot> all = new ArrayList<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public IgBrowserPool(int size, int maxUses) {
+        this.size = Math.max(1, size);
+        this.maxUses = Math.max(1, maxUses);
+        this.permits = new Semaphore(this.size, true);
+    }
+
+    public static IgBrowserPool shared() {
+        IgBrowserPool p = shared;
+        if (p == null) {
+            synchronized (IgBrowserPool.class) {
+                p = shared;
+                if (p == null) {
+                    p = new IgBrowserPool(getenvInt("IG_BROWSER_POOL_SIZE", defaultSize()), getenvInt("IG_BROWSER_MAX_USES", 50));
+                    shared = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public static void shutdownShared() {
+        IgBrowserPool p;
+        synchronized (IgBrowserPool.class) {
+            p = shared;
+            shared = null;
+        }
+        if (p != null) p.shutdown();
+    }
+
+    /**
+     * Сколько браузеров держать, если размер не задан: не больше числа ядер и не больше, чем помещается
+     * в половину физической памяти из расчёта IG_BROWSER_MB (по умолчанию 700) МБ на Chromium; от 1 до 4.
+     */
+    public static int defaultSize() {
+        int byCpu = Runtime.getRuntime().availableProcessors();
+        int byRam = byCpu;
+        try {
+            java.lang.management.OperatingSystemMXBean os = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                long totalMb = ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize() / (1024 * 1024);
+                byRam = (int) (totalMb / 2 / Math.max(100, getenvInt("IG_BROWSER_MB", 700)));
+            }
+        } catch (Exception ignored) {}
+        return Math.max(1, Math.min(4, Math.min(byCpu, byRam)));
+    }
+
+    /** Пометить аренды, которые возьмёт этот поток (и созданные им потоки), владельцем owner; null — снять. */
+    public static void setOwner(Object owner) {
+        if (owner == null) OWNER.remove();
+        else OWNER.set(owner);
+    }
+
+    /** Контекст с теми же ru-RU/Moscow/UA настройками, что раньше были захардкожены в скрейпере и логине. */
+    public static Browser.NewContextOptions defaultContextOptions() {
+        return new Browser.NewContextOptions()
+                .setLocale("ru-RU")
+                .setTimezoneId("Europe/Moscow")
+                .setViewportSize(1280, 900)
+                .setUserAgent(DESKTOP_UA);
+    }
+
+    public Lease acquire(Browser.NewContextOptions ctxOptions) {
+        if (closed) throw new IllegalStateException("Пул браузеров закрыт");
+        take(1);
+        return open(ctxOptions);
+    }
+
+    /**
+     * Занять сразу n мест в пуле — для задачи, которой нужны несколько браузеров одновременно. Места берутся
+     * одним вызовом: две такие задачи не могут взять по одному месту и ждать друг друга. Аренды открываются
+     * через {@link Reservation#acquire}, неиспользованные места возвращаются при close().
+     */
+    public Reservation reserve(int n) {
+        if (closed) throw new IllegalStateException("Пул браузеров закрыт");
+        if (n < 1 || n > size) throw new IllegalArgumentException("В пуле " + size + " браузеров, запрошено " + n);
+        take(n);
+        return new Reservation(n);
+    }
+
+    private void take(int n) {
+        try {
+            if (!permits.tryAcquire(n, waitMs, TimeUnit.MILLISECONDS)) {
+                throw new BusyException("Все браузеры заняты дольше " + waitMs / 1000 + " с");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ожидание браузера прервано", e);
+        }
+    }
+
+    // Место в пуле уже занято вызывающим; при ошибке оно возвращается
+    private Lease open(Browser.NewContextOptions ctxOptions) {
+        Slot slot = null;
+        try {
+            slot = idle.pollFirst();
+            if (slot != null && !isHealthy(slot)) {
+                destroy(slot);
+                slot = null;
+            }
+            if (slot == null) slot = launch();
+            slot.uses++;
+            BrowserContext context = slot.browser.newContext(ctxOptions);
+            Lease lease = new Lease(this, slot, context, OWNER.get());
+            leased.add(lease);
+            return lease;
+        } catch (RuntimeException e) {
+            if (slot != null) destroy(slot);
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int size() { return size; }
+
+    /** Суммарный RSS браузеров, арендованных владельцем; -1 — измерить нельзя (не Linux). */
+    public long rssOf(Object owner) {
+        long total = -1;
+        for (Lease l : leased) {
+            if (l.owner != owner) continue;
+            long rss = l.rssBytes();
+            if (rss >= 0) total = Math.max(0, total) + rss;
+        }
+        return total;
+    }
+
+    public boolean hasLeases(Object owner) {
+        for (Lease l : leased) if (l.owner == owner) return true;
+        return false;
+    }
+
+    /**
+     * Убить браузеры всех аренд владельца: процесс драйвера и Chromium завершаются принудительно, зависшие вызовы
+     * Playwright падают с ошибкой, а при возврате аренды слот пересоздаётся. Возвращает число затронутых аренд.
+     */
+    public int kill(Object owner) {
+        int n = 0;
+        for (Lease l : leased) {
+            if (l.owner != owner) continue;
+            l.broken = true;
+            ProcessHandle d = l.slot.driver;
+            if (d != null) {
+                d.descendants().forEach(ProcessHandle::destroyForcibly);
+                d.destroyForcibly();
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /** Строка на каждый запущенный браузер: занят или свободен, сколько аренд отработал, RSS. */
+    public List<String> describe() {
+        Set<Slot> busy = leased.stream().map(l -> l.slot).collect(Collectors.toSet());
+        List<Slot> copy;
+        synchronized (all) { copy = new ArrayList<>(all); }
+        List<String> out = new ArrayList<>();
+        for (Slot s : copy) {
+            long rss = s.driver == null ? -1 : rssTree(s.driver);
+            out.add(String.format(Locale.ROOT, "%s, аренд %d/%d, %s", busy.contains(s) ? "занят" : "свободен", s.uses, maxUses, formatMb(rss)));
+        }
+        return out;
+    }
+
+    /** RSS процесса и всех его потомков в байтах (по /proc); -1 — измерить нельзя. */
+    public static long rssTree(ProcessHandle root) {
+        long total = rss(root.pid());
+        if (total < 0) return -1;
+        for (ProcessHandle p : (Iterable<ProcessHandle>) root.descendants()::iterator) total += Math.max(0, rss(p.pid()));
+        return total;
+    }
+
+    public static String formatMb(long bytes) {
+        return bytes < 0 ? "память н/д" : (bytes + (1 << 19)) / (1 << 20) + " МБ";
+    }
+
+    private static long rss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (Exception ignored) {}
+        return -1;
+    }
+
+    public void shutdown() {
+        closed = true;
+        List<Slot> copy;
+        synchronized (all) { copy = new ArrayList<>(all); }
+        for (Slot s : copy) destroy(s);
+        idle.clear();
+    }
+
+    private void release(Slot slot, boolean broken) {
+        try {
+            if (broken || closed || slot.uses >= maxUses || !isHealthy(slot)) {
+                destroy(slot);
+            } else {
+                idle.addFirst(slot);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Slot launch() {
+        Playwright pw;
+        ProcessHandle driver;
+        // Драйвер — новый дочерний процесс JVM; запуски сериализуются, чтобы определить его однозначно
+        synchronized (IgBrowserPool.class) {
+            Set<Long> before = childPids();
+            pw = Playwright.create();
+            Set<Long> after = childPids();
+            after.removeAll(before);
+            driver = after.size() == 1 ? ProcessHandle.of(after.iterator().next()).orElse(null) : null;
+        }
+        try {
+            Browser browser = pw.chromium().launch(launchOptions());
+            Slot s = new Slot(pw, browser, driver);
+            synchronized (all) { all.add(s); }
+            return s;
+        } catch (RuntimeException e) {
+            try { pw.close(); } catch (Exception ignored) {}
+            throw e;
+        }
+    }
+
+    private static Set<Long> childPids() {
+        Set<Long> pids = new HashSet<>();
+        try { ProcessHandle.current().children().forEach(p -> pids.add(p.pid())); } catch (Exception ignored) {}
+        return pids;
+    }
+
+    private static BrowserType.LaunchOptions launchOptions() {
+        // IG_HEADLESS=true — без окна и X-сервера; по умолчанию headful, как раньше
+        BrowserType.LaunchOptions launchOptions = new BrowserType.LaunchOptions().setHeadless("true".equalsIgnoreCase(getenvSafe("IG_HEADLESS")));
+        String proxy = getenvSafe("IG_PROXY");
+        if (proxy != null && !proxy.isEmpty()) {
+            try { launchOptions.setProxy(new Proxy(proxy)); } catch (Exception ignored) {}
+        }
+        if ("true".equalsIgnoreCase(getenvSafe("IG_DEBUG"))) launchOptions.setSlowMo(500.0);
+        return launchOptions;
+    }
+
+    private static boolean isHealthy(Slot slot) {
+        try { return slot.browser.isConnected(); } catch (Exception e) { return false; }
+    }
+
+    private void destroy(Slot slot) {
+        synchronized (all) { all.remove(slot); }
+        try { slot.browser.close(); } catch (Exception ignored) {}
+        try { slot.pw.close(); } catch (Exception ignored) {}
+    }
+
+    private static String getenvSafe(String name) {
+        try {
+            return System.getenv(name);
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
+    static int getenvInt(String name, int def) {
+        try {
+            String v = getenvSafe(name);
+            return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+
+    /**
+     * Ошибка, после которой браузеру нельзя доверять: упал Chromium или драйвер, оборвалось соединение.
+     * Таймаут ожидания элемента к ним не относится — это обычная ситуация на странице, браузер исправен.
+     */
+    public static boolean isBrowserFailure(Throwable e) {
+        return e instanceof PlaywrightException && !(e instanceof TimeoutError);
+    }
+
+    /** Свободный браузер не дождались за IG_BROWSER_WAIT_SEC. */
+    public static class BusyException extends RuntimeException {
+        BusyException(String message) { super(message); }
+    }
+
+    /** Места в пуле, занятые через {@link #reserve}; каждое превращается в аренду не более одного раза. */
+    public final class Reservation implements AutoCloseable {
+        private int left;
+
+        private Reservation(int n) { this.left = n; }
+
+        public Lease acquire(Browser.NewContextOptions ctxOptions) {
+            synchronized (this) {
+                if (left == 0) throw new IllegalStateException("Все занятые места уже использованы");
+                left--;
+            }
+            return open(ctxOptions);
+        }
+
+        @Override
+        public void close() {
+            int n;
+            synchronized (this) { n = left; left = 0; }
+            if (n > 0) permits.release(n);
+        }
+    }
+
+    /** Аренда браузера: владеет текущим контекстом, при close() контекст закрывается, а браузер возвращается в пул. */
+    public static class Lease implements AutoCloseable {
+        private final IgBrowserPool pool;
+        private final Slot slot;
+        private volatile Object owner;
+        private BrowserContext context;
+        private volatile boolean broken;
+        private boolean released;
+
+        private Lease(IgBrowserPool pool, Slot slot, BrowserContext context, Object owner) {
+            this.pool = pool; this.slot = slot; this.context = context; this.owner = owner;
+        }
+
+        /**
+         * Передать аренду владельцу текущего потока (см. {@link #setOwner}) — когда браузер переходит
+         * к другой задаче, как открытый /login, который дожидается кода и продолжается задачей /2fa.
+         */
+        public void adoptByCurrentOwner() { owner = OWNER.get(); }
+
+        /** RSS браузера этой аренды (драйвер + Chromium); -1 — измерить нельзя. */
+        public long rssBytes() {
+            return slot.driver == null ? -1 : rssTree(slot.driver);
+        }
+
+        public BrowserContext context() { return context; }
+
+        /** Закрыть текущий контекст и открыть новый в том же браузере (например, мобильный фолбек логина). */
+        public BrowserContext newContext(Browser.NewContextOptions ctxOptions) {
+            try { context.close(); } catch (Exception ignored) {}
+            context = slot.browser.newContext(ctxOptions);
+            return context;
+        }
+
+        /** Пометить браузер как неисправный: при возврате он будет закрыт и пересоздан. */
+        public void markBroken() { broken = true; }
+
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            // Отменённая задача могла оборвать обмен с драйвером посреди команды — такой браузер не переиспользуем
+            boolean interrupted = Thread.interrupted();
+            if (interrupted) broken = true;
+            try {
+                context.close();
+            } catch (Exception e) {
+                broken = true;
+            }
+            pool.leased.remove(this);
+            pool.release(slot, broken);
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
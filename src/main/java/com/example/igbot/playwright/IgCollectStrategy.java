@@ -0,0 +1,16 @@
+package com.example.igbot.playwright;
+
+/**
+ * Один способ собрать список followers/following: модальный диалог в профиле,
+ * отдельная страница /followers/ или мобильная версия m.instagram.com.
+ * Стратегия дописывает найденное в общий {@link IgPlaywrightScraper.CollectRun};
+ * порядок запуска выбирает {@link IgStrategyEngine}.
+ */
+interface IgCollectStrategy {
+    String name();
+
+    /** Имеет ли смысл запускать стратегию в этом сборе. */
+    default boolean applicable(IgPlaywrightScraper.CollectRun run) { return true; }
+
+    void collect(IgPlaywrightScraper.CollectRun run);
+}
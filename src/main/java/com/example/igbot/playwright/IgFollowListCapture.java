@@ -0,0 +1,134 @@
+package com.example.igbot.playwright;
+
+import com.example.igbot.util.UsernameCodec;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Response;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Перехват ответов Instagram со списками followers/following, пока диалог скроллится.
+ * Понимает REST-ответы /api/v1/friendships/&lt;id&gt;/followers|following/ ({"users":[...],"next_max_id":...})
+ * и GraphQL-ответы (edge_followed_by / edge_follow с page_info.has_next_page).
+ * Если ни одного такого ответа не пришло, вызывающий код продолжает разбирать DOM.
+ */
+public class IgFollowListCapture {
+    private final Page page;
+    private final boolean followers;
+    private final Consumer<Response> handler;
+    // Заполняется из onResponse-обработчика, читается циклом скролла
+    private final Set<String> pending = new LinkedHashSet<>();
+    private int payloads;
+    private boolean reachedEnd;
+
+    private IgFollowListCapture(Page page, boolean followers) {
+        this.page = page;
+        this.followers = followers;
+        this.handler = this::onResponse;
+    }
+
+    public static IgFollowListCapture attach(Page page, boolean followers) {
+        IgFollowListCapture c = new IgFollowListCapture(page, followers);
+        page.onResponse(c.handler);
+        return c;
+    }
+
+    public void detach() {
+        try { page.offResponse(handler); } catch (Exception ignored) {}
+    }
+
+    /** Сколько подходящих JSON-ответов уже разобрано. */
+    public synchronized int payloads() { return payloads; }
+
+    /** Последний разобранный ответ сообщил, что страниц больше нет. */
+    public synchronized boolean reachedEnd() { return reachedEnd; }
+
+    /** Забрать usernames, пришедшие с прошлого вызова. */
+    public synchronized List<String> drain() {
+        if (pending.isEmpty()) return Collections.emptyList();
+        List<String> out = new ArrayList<>(pending);
+        pending.clear();
+        return out;
+    }
+
+    private void onResponse(Response r) {
+        try {
+            String url = r.url();
+            if (!matches(url)) return;
+            if (r.status() != 200) return;
+            String ct = r.headerValue("content-type");
+            if (ct != null && !ct.contains("json") && !ct.contains("javascript")) return;
+            parse(url, r.text());
+        } catch (Exception ignored) {}
+    }
+
+    private boolean matches(String url) {
+        if (url == null) return false;
+        if (url.contains("/api/v1/friendships/")) {
+            return url.contains(followers ? "/followers/" : "/following/");
+        }
+        return url.contains("/graphql/query");
+    }
+
+    void parse(String url, String body) {
+        if (body == null || body.isEmpty()) return;
+        JsonElement root;
+        try { root = JsonParser.parseString(body); } catch (Exception e) { return; }
+        if (!root.isJsonObject()) return;
+        JsonObject o = root.getAsJsonObject();
+
+        // REST: {"users":[{"username":"..."}], "next_max_id":"...", "big_list":true}
+        if (o.has("users") && o.get("users").isJsonArray() && url.contains("/api/v1/friendships/")) {
+            List<String> batch = new ArrayList<>();
+            for (JsonElement u : o.getAsJsonArray("users")) addUsername(batch, u);
+            boolean hasNext = o.has("next_max_id") && !o.get("next_max_id").isJsonNull()
+                    && !o.get("next_max_id").getAsString().isEmpty();
+            accept(batch, !hasNext);
+            return;
+        }
+
+        // GraphQL: data.user.edge_followed_by|edge_follow.{edges[].node.username, page_info.has_next_page}
+        JsonObject user = path(o, "data", "user");
+        if (user == null) return;
+        JsonObject edge = path(user, followers ? "edge_followed_by" : "edge_follow");
+        if (edge == null || !edge.has("edges") || !edge.get("edges").isJsonArray()) return;
+        List<String> batch = new ArrayList<>();
+        JsonArray edges = edge.getAsJsonArray("edges");
+        for (JsonElement e : edges) {
+            if (!e.isJsonObject()) continue;
+            JsonElement node = e.getAsJsonObject().get("node");
+            addUsername(batch, node);
+        }
+        JsonObject pageInfo = path(edge, "page_info");
+        boolean hasNext = pageInfo != null && pageInfo.has("has_next_page") && pageInfo.get("has_next_page").getAsBoolean();
+        accept(batch, !hasNext);
+    }
+
+    private synchronized void accept(List<String> batch, boolean last) {
+        payloads++;
+        pending.addAll(batch);
+        if (last) reachedEnd = true;
+    }
+
+    private static void addUsername(List<String> out, JsonElement u) {
+        if (u == null || !u.isJsonObject()) return;
+        JsonElement name = u.getAsJsonObject().get("username");
+        if (name == null || name.isJsonNull()) return;
+        String v = UsernameCodec.normalize(name.getAsString());
+        if (!v.isEmpty()) out.add(v);
+    }
+
+    private static JsonObject path(JsonObject o, String... keys) {
+        JsonObject cur = o;
+        for (String k : keys) {
+            if (cur == null || !cur.has(k) || !cur.get(k).isJsonObject()) return null;
+            cur = cur.getAsJsonObject(k);
+        }
+        return cur;
+    }
+}
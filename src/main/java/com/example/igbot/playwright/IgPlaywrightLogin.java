@@ -4,7 +4,6 @@ import com.microsoft.playwright.*;
 import com.example.igbot.util.AppCookie;
 import com.microsoft.playwright.options.WaitForSelectorState;
 import com.microsoft.playwright.options.WaitUntilState;
-import com.microsoft.playwright.options.Proxy;
 import com.microsoft.playwright.Response;
 import com.microsoft.playwright.options.AriaRole;
 
@@ -19,13 +18,18 @@ import java.nio.file.StandardOpenOption;
 public class IgPlaywrightLogin {
     private static final String LOG_FILE = "playwright-log-" + System.currentTimeMillis() + ".log";
     public static class Handle {
-        final Playwright pw;
-        final Browser browser;
+        final IgBrowserPool.Lease lease;
         final BrowserContext context;
         final Page page;
-        Handle(Playwright pw, Browser browser, BrowserContext context, Page page) {
-            this.pw = pw; this.browser = browser; this.context = context; this.page = page;
+        Handle(IgBrowserPool.Lease lease, Page page) {
+            this.lease = lease; this.context = lease.context(); this.page = page;
         }
+
+        /** Закрыть браузер, так и не дождавшись кода (истёк срок, новый /login). */
+        public void close() { safeClose(lease); }
+
+        /** Память браузера, который держит ожидание кода; -1 — неизвестно. */
+        public long rssBytes() { return lease.rssBytes(); }
     }
 
     private static void tryClick(Page page, String selector) {
@@ -43,38 +47,28 @@ public class IgPlaywrightLogin {
 
     public static class Result {
         public final Set<AppCookie> cookies;
+        public final String storageState; // storage state контекста после входа (для IgStateVault)
         public final Handle handle; // not null if waiting for 2FA
-        private Result(Set<AppCookie> cookies, Handle handle) {
-            this.cookies = cookies; this.handle = handle;
+        private Result(Set<AppCookie> cookies, String storageState, Handle handle) {
+            this.cookies = cookies; this.storageState = storageState; this.handle = handle;
         }
-        public static Result cookies(Set<AppCookie> cookies) { return new Result(cookies, null); }
-        public static Result wait2fa(Handle handle) { return new Result(null, handle); }
+        public static Result cookies(Set<AppCookie> cookies, String storageState) { return new Result(cookies, storageState, null); }
+        public static Result wait2fa(Handle handle) { return new Result(null, null, handle); }
     }
 
     public static Result startLogin(String username, String password) {
-        Playwright pw = Playwright.create();
+        return startLogin(username, password, null);
+    }
+
+    /** savedState — прежний storage state этого аккаунта из IgStateVault (может быть null). */
+    public static Result startLogin(String username, String password, String savedState) {
         boolean debug = isDebug();
-        // Всегда запускаем headful (реальный браузер). Замедление по IG_DEBUG
-        BrowserType.LaunchOptions launchOptions = new BrowserType.LaunchOptions().setHeadless(false);
-        String proxy = getenvSafe("IG_PROXY");
-        if (proxy != null && !proxy.isEmpty()) {
-            try { launchOptions.setProxy(new Proxy(proxy)); } catch (Exception ignored) {}
-        }
-        if (debug) launchOptions.setSlowMo(500.0);
-        Browser browser = pw.chromium().launch(launchOptions);
-
-        Browser.NewContextOptions ctxOptions = new Browser.NewContextOptions()
-                .setLocale("ru-RU")
-                .setTimezoneId("Europe/Moscow")
-                .setViewportSize(1280, 900)
-                .setUserAgent("Mozilla/5.0 (Macintosh; Intel Mac OS X 13_5) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36");
-        // Загрузка сохраненного состояния (если есть)
-        try {
-            if (Files.exists(Paths.get("storageState.json"))) {
-                ctxOptions.setStorageStatePath(Paths.get("storageState.json"));
-            }
-        } catch (Exception ignored) {}
-        BrowserContext context = browser.newContext(ctxOptions);
+        // Браузер берём из общего пула, поэтому при IG_HEADLESS=true вход тоже идёт без окна; IG_PROXY и замедление по IG_DEBUG задаёт пул
+        Browser.NewContextOptions ctxOptions = IgBrowserPool.defaultContextOptions();
+        // Прежнее состояние именно этого аккаунта: устройство уже знакомо Instagram
+        if (savedState != null) ctxOptions.setStorageState(savedState);
+        IgBrowserPool.Lease lease = IgBrowserPool.shared().acquire(ctxOptions);
+        BrowserContext context = lease.context();
         try {
             Map<String, String> headers = new LinkedHashMap<>();
             headers.put("Accept-Language", "ru-RU,ru;q=0.9,en-US;q=0.8,en;q=0.7");
@@ -83,7 +77,13 @@ public class IgPlaywrightLogin {
             // Важно: не добавляем Upgrade-Insecure-Requests и Sec-Fetch-* во избежание CORS preflight
             context.setExtraHTTPHeaders(headers);
         } catch (Exception ignored) {}
-        Page page = context.newPage();
+        Page page;
+        try {
+            page = context.newPage();
+        } catch (RuntimeException e) {
+            failClose(lease, e);
+            throw e;
+        }
         try {
             // Mask webdriver flag
             try {
@@ -108,13 +108,13 @@ public class IgPlaywrightLogin {
             } catch (RuntimeException navErr) {
                 // Retry with mobile site and UA in a fresh context
                 try { page.close(); } catch (Exception ignored) {}
-                try { context.close(); } catch (Exception ignored) {}
                 Browser.NewContextOptions mobileCtx = new Browser.NewContextOptions()
                         .setLocale("ru-RU")
                         .setTimezoneId("Europe/Moscow")
                         .setViewportSize(390, 800)
                         .setUserAgent("Mozilla/5.0 (iPhone; CPU iPhone OS 16_2 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/16.0 Mobile/15E148 Safari/604.1");
-                context = browser.newContext(mobileCtx);
+                if (savedState != null) mobileCtx.setStorageState(savedState);
+                context = lease.newContext(mobileCtx);
                 page = context.newPage();
                 try {
                     page.addInitScript("Object.defineProperty(navigator, 'webdriver', {get: () => undefined});");
@@ -249,27 +249,25 @@ public class IgPlaywrightLogin {
                 // 2FA field candidates
                 if (page.locator("input[name='verificationCode']").count() > 0 ||
                         page.locator("input[aria-label='Security code']").count() > 0) {
-                    return Result.wait2fa(new Handle(pw, browser, context, page));
+                    return Result.wait2fa(new Handle(lease, page));
                 }
                 // Logged-in heuristic: presence of nav or redirect to /
                 if (page.url().contains("instagram.com") && page.locator("nav").count() > 0) {
-                    // Сохраняем состояние для будущих запусков
-                    try { context.storageState(new BrowserContext.StorageStateOptions().setPath(Paths.get("storageState.json"))); } catch (Exception ignored) {}
-                    Set<AppCookie> cookies = collectCookies(context);
-                    safeClose(pw, browser, context);
-                    return Result.cookies(cookies);
+                    Result res = loggedIn(context);
+                    safeClose(lease);
+                    return res;
                 }
                 page.waitForTimeout(1000);
             }
             // timeout -> try getting cookies anyway
-            Set<AppCookie> cookies = collectCookies(context);
-            safeClose(pw, browser, context);
-            return Result.cookies(cookies);
+            Result res = loggedIn(context);
+            safeClose(lease);
+            return res;
         } catch (RuntimeException e) {
             if (debug) {
                 try { context.tracing().stop(new Tracing.StopOptions().setPath(Paths.get("trace.zip"))); } catch (Exception ignored) {}
             }
-            safeClose(pw, browser, context);
+            failClose(lease, e);
             throw e;
         }
     }
@@ -283,8 +281,10 @@ public class IgPlaywrightLogin {
         }
     }
 
-    public static Set<AppCookie> submit2FA(Handle handle, String code) {
+    public static Result submit2FA(Handle handle, String code) {
         Page page = handle.page;
+        // Браузер арендовала уже завершённая задача /login; без смены владельца зависший /2fa нечем было бы убить
+        handle.lease.adoptByCurrentOwner();
         try {
             Locator codeInput = page.locator("input[name='verificationCode'], input[aria-label='Security code']").first();
             if (codeInput.count() == 0) throw new IllegalStateException("Поле 2FA не найдено");
@@ -294,9 +294,9 @@ public class IgPlaywrightLogin {
             long start = System.currentTimeMillis();
             while (System.currentTimeMillis() - start < 60000) {
                 if (page.url().contains("instagram.com") && page.locator("nav").count() > 0) {
-                    Set<AppCookie> cookies = collectCookies(handle.context);
-                    safeClose(handle.pw, handle.browser, handle.context);
-                    return cookies;
+                    Result res = loggedIn(handle.context);
+                    safeClose(handle.lease);
+                    return res;
                 }
                 // simple invalid code detection
                 if (page.locator("text=incorrect").count() > 0 || page.locator("text=Неверный").count() > 0) {
@@ -306,7 +306,7 @@ public class IgPlaywrightLogin {
             }
             throw new RuntimeException("Таймаут ожидания после ввода кода");
         } catch (RuntimeException e) {
-            safeClose(handle.pw, handle.browser, handle.context);
+            failClose(handle.lease, e);
             throw e;
         }
     }
@@ -333,14 +333,6 @@ public class IgPlaywrightLogin {
         throw new RuntimeException("Навигация не удалась: " + url);
     }
 
-    private static String getenvSafe(String name) {
-        try {
-            return System.getenv(name);
-        } catch (Exception ignored) {
-            return null;
-        }
-    }
-
     private static void saveArtifacts(Page page, String tag) {
         try {
             long ts = System.currentTimeMillis();
@@ -457,6 +449,13 @@ public class IgPlaywrightLogin {
         } catch (Exception ignored) {}
     }
 
+    // Cookies и полный storage state контекста; state не критичен — без него просто не будет записи в хранилище
+    private static Result loggedIn(BrowserContext context) {
+        String state = null;
+        try { state = context.storageState(); } catch (Exception ignored) {}
+        return Result.cookies(collectCookies(context), state);
+    }
+
     private static Set<AppCookie> collectCookies(BrowserContext context) {
         java.util.List<com.microsoft.playwright.options.Cookie> pcs = context.cookies();
         Set<AppCookie> out = new LinkedHashSet<>();
@@ -467,10 +466,14 @@ public class IgPlaywrightLogin {
         return out;
     }
 
-    private static void safeClose(Playwright pw, Browser browser, BrowserContext context) {
-        try { context.close(); } catch (Exception ignored) {}
-        try { browser.close(); } catch (Exception ignored) {}
-        try { pw.close(); } catch (Exception ignored) {}
+    // Вернуть аренду после ошибки: упавший браузер пул закроет и пересоздаст, а не выдаст следующей задаче
+    private static void failClose(IgBrowserPool.Lease lease, RuntimeException e) {
+        if (IgBrowserPool.isBrowserFailure(e)) lease.markBroken();
+        safeClose(lease);
+    }
+
+    private static void safeClose(IgBrowserPool.Lease lease) {
+        try { lease.close(); } catch (Exception ignored) {}
     }
 
     private static boolean detectWrongPassword(Page page) {
@@ -2,279 +2,667 @@ package com.example.igbot.playwright;
 
 import com.microsoft.playwright.*;
 import com.example.igbot.util.AppCookie;
+import com.example.igbot.util.UsernameCodec;
 import com.microsoft.playwright.options.LoadState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class IgPlaywrightScraper {
     public static class Pair {
         public final Set<String> followers;
         public final Set<String> following;
+        // false — сбор остановился раньше времени (застой, упавшие стратегии) и списки не сошлись со счётчиками
+        public final boolean complete;
         public Pair(Set<String> followers, Set<String> following) {
-            this.followers = followers; this.following = following;
+            this(followers, following, true);
         }
+        public Pair(Set<String> followers, Set<String> following, boolean complete) {
+            this.followers = followers; this.following = following; this.complete = complete;
+        }
+    }
+
+    // Один собранный список и признак, что он полный
+    private static final class Collected {
+        final Set<String> names;
+        final boolean complete;
+        Collected(Set<String> names, boolean complete) { this.names = names; this.complete = complete; }
     }
 
+    private static final Logger log = LoggerFactory.getLogger(IgPlaywrightScraper.class);
+
     public static Pair fetchAll(String username, Set<AppCookie> cookies) {
-        try (Playwright pw = Playwright.create()) {
-            Browser browser = pw.chromium().launch(new BrowserType.LaunchOptions().setHeadless(false));
-            Browser.NewContextOptions ctxOptions = new Browser.NewContextOptions()
-                    .setLocale("ru-RU")
-                    .setTimezoneId("Europe/Moscow")
-                    .setViewportSize(1280, 900)
-                    .setUserAgent("Mozilla/5.0 (Macintosh; Intel Mac OS X 13_5) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36");
-            BrowserContext context = browser.newContext(ctxOptions);
-            // Apply cookies
-            if (cookies != null && !cookies.isEmpty()) {
-                List<com.microsoft.playwright.options.Cookie> list = new ArrayList<>();
-                for (AppCookie c : cookies) {
-                    com.microsoft.playwright.options.Cookie pc = new com.microsoft.playwright.options.Cookie(c.name, c.value)
-                            .setDomain(c.domain == null ? ".instagram.com" : c.domain)
-                            .setPath(c.path == null ? "/" : c.path);
-                    if (c.expiresEpochSeconds != null) pc.setExpires(c.expiresEpochSeconds.doubleValue());
-                    list.add(pc);
-                }
-                context.addCookies(list);
-            }
-            Page page = context.newPage();
-            // минимальная маскировка
-            try { page.addInitScript("Object.defineProperty(navigator, 'webdriver', {get: () => undefined});"); } catch (Exception ignored) {}
+        return fetchAll(username, cookies, null, IgScrapeProgress.NONE);
+    }
 
-            String url = "https://www.instagram.com/" + username + "/";
-            page.navigate(url);
-            page.waitForLoadState(LoadState.DOMCONTENTLOADED);
-            if (isDebug()) saveArtifacts(page, "profile-navigate");
+    /**
+     * Дельта-режим: если передан предыдущий снимок, скролл списка останавливается после
+     * IG_DELTA_STOP_AFTER (по умолчанию 30) подряд уже известных usernames — списки Instagram
+     * начинаются с самых новых связей. Хвост берётся из снимка, если это сходится со счётчиком
+     * в шапке профиля; иначе (кто-то отписался) скролл продолжается до конца.
+     * Ход сбора (фаза, собрано/ожидается) уходит в progress на каждом шаге скролла.
+     */
+    public static Pair fetchAll(String username, Set<AppCookie> cookies, Pair previous, IgScrapeProgress progress) {
+        return fetchAllWithState(username, IgStateVault.stateFromCookies(cookies), previous, progress);
+    }
 
-            // Проверка приватности/ошибок
-            if (page.locator("text=This account is private").count() > 0 ||
-                page.locator("text=Закрытый аккаунт").count() > 0) {
-                throw new RuntimeException("Профиль приватный. Нужна подписка/подтверждение доступа.");
+    /**
+     * То же, что {@link #fetchAll(String, Set, Pair, IgScrapeProgress)}, но вход передаётся готовым
+     * Playwright storage state (из {@link IgStateVault}): контекст создаётся сразу залогиненным.
+     */
+    public static Pair fetchAllWithState(String username, String storageState, Pair previous, IgScrapeProgress progress) {
+        IgBrowserPool pool = IgBrowserPool.shared();
+        int parallelism = Math.min(getParallelism(), pool.size());
+        if (parallelism >= 2) return fetchAllParallel(pool, username, storageState, previous, progress);
+        try (IgBrowserPool.Lease lease = pool.acquire(contextOptions(storageState))) {
+            IgRoutePolicy.Stats traffic = IgRoutePolicy.fromEnv().install(lease.context());
+            try {
+                Pair p = collectBoth(openProfile(lease.context(), username), username, previous, progress);
+                // Неполный сбор оставляет чекпоинты: следующий запуск продолжит с места остановки
+                if (p.complete) IgScrapeCheckpoint.discard(username);
+                return p;
+            } catch (RuntimeException e) {
+                // Упавший браузер не должен вернуться в пул к следующей задаче
+                if (IgBrowserPool.isBrowserFailure(e)) lease.markBroken();
+                throw e;
+            } finally {
+                log.info("traffic {}", traffic.summary());
             }
-            // Убедиться, что хедер профиля прогрузился
-            page.waitForSelector("header", new Page.WaitForSelectorOptions().setTimeout(15000));
-
-            // Оценим ожидаемые размеры для контроля доскролла
-            Integer expectedFollowers = getExpectedCount(page, true);
-            Integer expectedFollowing = getExpectedCount(page, false);
-
-            // Open followers dialog
-            Set<String> followers = openAndCollect(page, true, expectedFollowers);
-            // Open following dialog
-            Set<String> following = openAndCollect(page, false, expectedFollowing);
-
-            context.close();
-            browser.close();
-            return new Pair(followers, following);
-        }
-    }
-
-    private static Set<String> openAndCollect(Page page, boolean followers, Integer expectedTotal) {
-        // Click followers/following link
-        String linkSelectorFollowers = "a[href$='/followers/'], a:has-text('followers'), a:has-text('подписчик')";
-        String linkSelectorFollowing = "a[href$='/following/'], a:has-text('following'), a:has-text('подписки')";
-        String selector = followers ? linkSelectorFollowers : linkSelectorFollowing;
-        Locator link = page.locator(selector).first();
-        link.waitFor();
-        link.click();
-        page.waitForTimeout(500);
-        // Dialog
-        Locator dialog = page.locator("div[role='dialog']").first();
-        dialog.waitFor(new Locator.WaitForOptions().setTimeout(15000));
-        // На практике у Instagram часто скроллится контейнер с классом _aano
-        Locator scrollArea = dialog.locator("div._aano, div[style*='overflow'], ul, div[role='dialog']");
-        if (scrollArea.count() == 0) scrollArea = dialog;
-        Locator list = dialog.locator("ul").first();
-        if (list.count() == 0) list = scrollArea.first();
-        // дождаться появления первых элементов списка
-        try { list.locator("li, a[href]").first().waitFor(new Locator.WaitForOptions().setTimeout(10000)); } catch (Exception ignored) {}
-        // Фокус и наведение на область прокрутки
-        try { scrollArea.first().click(); } catch (Exception ignored) {}
-        try { moveMouseToCenter(page, scrollArea.first()); } catch (Exception ignored) {}
-
-        boolean slow = isSlow();
-        java.util.Random rnd = slow ? new java.util.Random() : null;
-        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        int stable = 0; int lastCount = -1;
-        for (int i = 0; i < (slow ? 3000 : 2000); i++) {
-            // попытаться скроллить к последнему видимому элементу
+        }
+    }
+
+    private static Pair collectBoth(Page page, String username, Pair previous, IgScrapeProgress progress) {
+        // Оценим ожидаемые размеры для контроля доскролла
+        String followersText = headerCountText(page, true);
+        String followingText = headerCountText(page, false);
+        Integer expectedFollowers = parseCount(followersText);
+        Integer expectedFollowing = parseCount(followingText);
+        rememberHeader(username, true, expectedFollowers);
+        rememberHeader(username, false, expectedFollowing);
+
+        // Open followers dialog
+        Collected followers = openAndCollect(page, username, true, expectedFollowers, roundingTolerance(followersText), previous == null ? null : previous.followers, progress);
+        // Open following dialog
+        Collected following = openAndCollect(page, username, false, expectedFollowing, roundingTolerance(followingText), previous == null ? null : previous.following, progress);
+
+        return new Pair(followers.names, following.names, followers.complete && following.complete);
+    }
+
+    // Followers и following собираются одновременно, каждый в своей аренде пула с одинаковым storage state.
+    // Объекты Playwright нельзя дёргать из двух потоков сразу, поэтому вместо двух страниц одного
+    // контекста используются два контекста в разных браузерах пула. Оба места в пуле занимаются разом,
+    // иначе две такие задачи могут взять по одному и ждать второго друг у друга.
+    private static Pair fetchAllParallel(IgBrowserPool pool, String username, String storageState, Pair previous, IgScrapeProgress progress) {
+        try (IgBrowserPool.Reservation seats = pool.reserve(2)) {
+            return fetchAllParallel(seats, username, storageState, previous, progress);
+        }
+    }
+
+    private static Pair fetchAllParallel(IgBrowserPool.Reservation seats, String username, String storageState, Pair previous, IgScrapeProgress progress) {
+        ExecutorService exec = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "scrape-" + username);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Future<Collected> followers = exec.submit(() -> collectOne(seats, username, storageState, true, previous == null ? null : previous.followers, progress));
+            Future<Collected> following = exec.submit(() -> collectOne(seats, username, storageState, false, previous == null ? null : previous.following, progress));
+            Collected f = join(followers), g = join(following);
+            Pair p = new Pair(f.names, g.names, f.complete && g.complete);
+            if (p.complete) IgScrapeCheckpoint.discard(username);
+            return p;
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static Collected collectOne(IgBrowserPool.Reservation seats, String username, String storageState, boolean followers, Set<String> known, IgScrapeProgress progress) {
+        try (IgBrowserPool.Lease lease = seats.acquire(contextOptions(storageState))) {
+            IgRoutePolicy.Stats traffic = IgRoutePolicy.fromEnv().install(lease.context());
             try {
-                Locator items = list.locator("li");
-                int cnt = items.count();
-                if (cnt > 0) {
-                    items.nth(Math.max(0, cnt - 1)).scrollIntoViewIfNeeded();
-                } else {
-                    // запасной вариант: прокрутка контейнера
-                    scrollArea.first().evaluate("(el)=>{el.scrollTop = el.scrollHeight}");
-                }
-            } catch (Exception ignored) {}
+                Page page = openProfile(lease.context(), username);
+                String text = headerCountText(page, followers);
+                Integer expected = parseCount(text);
+                rememberHeader(username, followers, expected);
+                return openAndCollect(page, username, followers, expected, roundingTolerance(text), known, progress);
+            } catch (RuntimeException e) {
+                if (IgBrowserPool.isBrowserFailure(e)) lease.markBroken();
+                throw e;
+            } finally {
+                log.info("traffic {} {}", followers ? "followers" : "following", traffic.summary());
+            }
+        }
+    }
+
+    private static <T> T join(Future<T> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Сбор прерван", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new RuntimeException(c);
+        }
+    }
+
+    // Cookies и localStorage попадают в контекст при создании, без отдельного addCookies
+    private static Browser.NewContextOptions contextOptions(String storageState) {
+        Browser.NewContextOptions o = IgBrowserPool.defaultContextOptions();
+        if (storageState != null) o.setStorageState(storageState);
+        return o;
+    }
+
+    private static Page openProfile(BrowserContext context, String username) {
+        Page page = context.newPage();
+        // минимальная маскировка
+        try { page.addInitScript("Object.defineProperty(navigator, 'webdriver', {get: () => undefined});"); } catch (Exception ignored) {}
+
+        String url = "https://www.instagram.com/" + username + "/";
+        page.navigate(url);
+        page.waitForLoadState(LoadState.DOMCONTENTLOADED);
+        if (isDebug()) saveArtifacts(page, "profile-navigate");
+
+        // Проверка приватности/ошибок
+        if (page.locator("text=This account is private").count() > 0 ||
+            page.locator("text=Закрытый аккаунт").count() > 0) {
+            throw new RuntimeException("Профиль приватный. Нужна подписка/подтверждение доступа.");
+        }
+        // Убедиться, что хедер профиля прогрузился
+        page.waitForSelector("header", new Page.WaitForSelectorOptions().setTimeout(15000));
+        return page;
+    }
+
+    private static Collected openAndCollect(Page page, String username, boolean followers, Integer expectedTotal, int expectedTolerance, Set<String> known, IgScrapeProgress progress) {
+        // Чекпоинт прошлого прерванного запуска: собранное не теряется, а готовый список не скроллится заново
+        IgScrapeCheckpoint ckpt = IgScrapeCheckpoint.open(username, followers);
+        if (ckpt != null && ckpt.isDone()) {
+            ckpt.close();
+            progress.update(followers, "done", ckpt.restored().size(), expectedTotal);
+            return new Collected(ckpt.restored(), true);
+        }
+        try {
+            CollectRun run = openAndCollect(page, username, followers, expectedTotal, expectedTolerance, ckpt, known, progress);
+            boolean full = run.isFull();
+            // Неполный список не помечаем собранным — иначе следующий запуск взял бы его из чекпоинта как готовый
+            if (ckpt != null && full) ckpt.complete();
+            progress.update(followers, "done", run.names.size(), expectedTotal);
+            return new Collected(run.names, full);
+        } finally {
+            if (ckpt != null) ckpt.close();
+        }
+    }
+
+    private static final List<IgCollectStrategy> STRATEGIES = List.of(new DialogStrategy(), new PageStrategy(), new MobileStrategy());
 
-            // Доп. прокрутка: реальная прокрутка колесом мыши над контейнером, затем scrollBy и PageDown как бэкап
-            try { wheelScrollOver(page, scrollArea.first(), slow ? 4 : 3, slow ? 200 : 220); } catch (Exception ignored) {}
-            for (int step = 0; step < (slow ? 4 : 3); step++) {
-                try { scrollArea.first().hover(); } catch (Exception ignored) {}
-                int dy = slow ? 520 + (rnd.nextInt(3) * 60) : 600;
-                try { scrollArea.first().evaluate("(el,dy)=>{el.scrollBy(0, dy)}", dy); } catch (Exception ignored) {}
-                page.waitForTimeout(slow ? 380 : 260);
+    private static CollectRun openAndCollect(Page page, String username, boolean followers, Integer expectedTotal, int expectedTolerance, IgScrapeCheckpoint ckpt, Set<String> known, IgScrapeProgress progress) {
+        // Подписываемся на JSON-ответы до открытия списка: первая страница приходит сразу
+        IgFollowListCapture capture = isNetworkMode() ? IgFollowListCapture.attach(page, followers) : null;
+        try {
+            CollectRun run = new CollectRun(page, username, followers, expectedTotal, expectedTolerance, capture, ckpt, known, progress);
+            if (ckpt != null) run.names.addAll(ckpt.restored());
+            IgStrategyEngine engine = IgStrategyEngine.shared();
+            List<String> defaults = new ArrayList<>();
+            for (IgCollectStrategy st : STRATEGIES) defaults.add(st.name());
+            for (String name : engine.plan(defaults, expectedTotal)) {
+                IgCollectStrategy st = strategy(name);
+                checkCancelled();
+                // Тот же допуск, что и у isFull: фолбек не запускается на уже принятом списке
+                // и не портит статистику стратегии пустым прогоном
+                if (run.isComplete()) break;
+                if (!st.applicable(run)) continue;
+                if (ckpt != null) ckpt.phase(name, expectedTotal);
+                run.phase = name;
+                run.knownRun = 0; // каждая стратегия идёт с головы списка заново
+                run.report(run.names.size());
+                int before = run.names.size();
+                long t0 = System.currentTimeMillis();
+                run.failed = false;
+                try {
+                    st.collect(run);
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // Стратегия упала — учитываем как безрезультатную и пробуем следующую
+                    run.failed = true;
+                }
+                engine.record(name, expectedTotal, before, run.names.size(), System.currentTimeMillis() - t0);
             }
-            try { page.keyboard().press("PageDown"); } catch (Exception ignored) {}
+            return run;
+        } finally {
+            if (capture != null) capture.detach();
+        }
+    }
 
-            // Если есть кнопки типа "Показать ещё" — кликнуть
-            try {
-                Locator more = dialog.locator("text=Показать ещё, text=Show more").first();
-                if (more.count() > 0 && more.isVisible()) more.click();
-            } catch (Exception ignored) {}
+    private static IgCollectStrategy strategy(String name) {
+        for (IgCollectStrategy st : STRATEGIES) if (st.name().equals(name)) return st;
+        throw new IllegalArgumentException(name);
+    }
+
+    // Размеры списков из шапки профиля при последнем открытии — для оценки длительности следующего сбора
+    private static final Map<String, Integer> headerCounts = new ConcurrentHashMap<>();
+
+    private static void rememberHeader(String username, boolean followers, Integer count) {
+        if (count != null) headerCounts.put(UsernameCodec.normalize(username) + (followers ? "/followers" : "/following"), count);
+    }
+
+    /** followers + following из шапки профиля при последнем сборе; null, если аккаунт ещё не открывали. */
+    public static Integer lastHeaderSize(String username) {
+        String key = UsernameCodec.normalize(username);
+        Integer f = headerCounts.get(key + "/followers");
+        Integer g = headerCounts.get(key + "/following");
+        if (f == null && g == null) return null;
+        return (f == null ? 0 : f) + (g == null ? 0 : g);
+    }
+
+    // Задачу отменили (/cancel прерывает поток) — выходим из скролла, не дожидаясь застоя
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) throw new CancellationException("Сбор отменён");
+    }
+
+    public static String strategyStats() {
+        return IgStrategyEngine.shared().stats();
+    }
+
+    /** Общее состояние сбора одного списка, которое стратегии дополняют по очереди. */
+    static class CollectRun {
+        final Page page;
+        final String username;
+        final boolean followers;
+        final Integer expectedTotal;
+        final int expectedTolerance; // 0 — в шапке точное число; иначе на сколько оно может быть округлено
+        final IgFollowListCapture capture;
+        final IgScrapeCheckpoint ckpt;
+        final Set<String> known;
+        final IgScrapeProgress progress;
+        final boolean slow = isSlow();
+        final Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        boolean deltaAccepted;
+        boolean failed;        // последняя запущенная стратегия упала
+        boolean deltaActive;   // дельта-режим ещё возможен: не было расхождения со счётчиком
+        int knownRun;          // подряд уже известных usernames в текущей стратегии
+        final int deltaStopAfter = IgBrowserPool.getenvInt("IG_DELTA_STOP_AFTER", 30);
+        String phase;
+        private IgRowObserver rows;
+        private boolean rowsInstalled;
 
-            // редкая синхронизация по сети
-            if (!slow && i % 10 == 0) {
-                try { page.waitForLoadState(LoadState.NETWORKIDLE, new Page.WaitForLoadStateOptions().setTimeout(2000)); } catch (Exception ignored) {}
+        CollectRun(Page page, String username, boolean followers, Integer expectedTotal, int expectedTolerance,
+                   IgFollowListCapture capture, IgScrapeCheckpoint ckpt, Set<String> known, IgScrapeProgress progress) {
+            this.page = page; this.username = username; this.followers = followers;
+            this.expectedTotal = expectedTotal; this.expectedTolerance = expectedTolerance;
+            this.capture = capture; this.ckpt = ckpt; this.known = known; this.progress = progress;
+            this.deltaActive = known != null && !known.isEmpty();
+        }
+
+        /**
+         * Дельта-проверка после шага скролла любой стратегии: added — новые usernames шага в порядке появления,
+         * pending — собранное стратегией, но ещё не перенесённое в names (или null).
+         * true — голова списка дошла до известных связей и вместе со снимком сходится со счётчиком:
+         * хвост взят из снимка, скролл можно заканчивать. Не сошлось — дальше полный проход.
+         */
+        boolean deltaReached(List<String> added, Set<String> pending) {
+            if (!deltaActive) return false;
+            for (String n : added) knownRun = known.contains(n) ? knownRun + 1 : 0;
+            if (knownRun < deltaStopAfter) return false;
+            Set<String> head = names;
+            if (pending != null && !pending.isEmpty()) {
+                head = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                head.addAll(names);
+                head.addAll(pending);
             }
-            page.waitForTimeout(slow ? 1200 : 900);
-            names.addAll(extractUsernames(dialog));
-            int cur = names.size();
-            // Лёгкий лог в stdout для диагностики
-            try { System.out.println("[scrape] collected=" + cur); } catch (Exception ignored) {}
-            if (expectedTotal != null && expectedTotal > 0 && cur >= expectedTotal) {
-                break; // достигли ожидаемого размера
+            if (deltaMatchesHeader(head, known, expectedTotal, expectedTolerance)) {
+                if (pending != null) addAll(names, pending, ckpt);
+                addAll(names, known, ckpt);
+                deltaAccepted = true;
+                return true;
             }
-            if (cur == lastCount) {
-                stable++; if (stable >= (slow ? 12 : 8)) break;
-            } else { stable = 0; lastCount = cur; }
+            // Счётчик не сходится — были отписки где-то в хвосте, нужен полный проход
+            deltaActive = false;
+            return false;
         }
-        // Close dialog with Escape
-        page.keyboard().press("Escape");
 
-        // Если прирост остановился слишком рано, пробуем fallback через отдельную страницу
-        if (names.size() <= 6 || (expectedTotal != null && names.size() + 3 < expectedTotal)) {
-            try {
-                String suffix = followers ? "/followers/" : "/following/";
-                String href = null;
+        void report(int collected) {
+            log.debug("{} {} collected={}", followers ? "followers" : "following", phase, collected);
+            try { progress.update(followers, phase, collected, expectedTotal); } catch (Exception ignored) {}
+        }
+
+        String suffix() { return followers ? "/followers/" : "/following/"; }
+
+        // Функция приёма строк пробрасывается в страницу один раз и переживает навигации
+        IgRowObserver rows() {
+            if (!rowsInstalled) {
+                rowsInstalled = true;
+                rows = installRowObserver(page);
+            }
+            return rows;
+        }
+
+        boolean apiFinished() {
+            return capture != null && capture.reachedEnd();
+        }
+
+        /** Достаточно ли собрано, чтобы не запускать следующие стратегии. */
+        boolean isComplete() {
+            if (deltaAccepted || apiFinished()) return true;
+            if (expectedTotal != null) return reachedHeader();
+            return names.size() > 6;
+        }
+
+        /**
+         * Можно ли считать список полным и сохранять его как снимок: сошёлся со счётчиком в шапке
+         * (с учётом округления), дошёл до конца по API или принят по дельте. Без счётчика — если собрано
+         * больше горстки и последняя стратегия не упала.
+         */
+        boolean isFull() {
+            if (deltaAccepted || apiFinished()) return true;
+            if (expectedTotal != null) return reachedHeader();
+            return !failed && names.size() > 6;
+        }
+
+        // Собрано не меньше счётчика из шапки: пара строк может не отрисоваться, а "12,3 тыс." округлено
+        private boolean reachedHeader() {
+            return names.size() + Math.max(3, expectedTolerance) >= expectedTotal;
+        }
+    }
+
+    // Модальный диалог со списком в профиле
+    private static class DialogStrategy implements IgCollectStrategy {
+        @Override public String name() { return "dialog"; }
+
+        @Override
+        public void collect(CollectRun run) {
+            Page page = run.page;
+            boolean slow = run.slow;
+            IgFollowListCapture capture = run.capture;
+            Set<String> names = run.names;
+            Integer expectedTotal = run.expectedTotal;
+            // Диалог открывается из профиля: если до нас отработала другая стратегия, вернёмся на него
+            if (!isProfileUrl(page.url(), run.username)) {
+                page.navigate("https://www.instagram.com/" + run.username + "/");
+                page.waitForLoadState(LoadState.DOMCONTENTLOADED);
+                page.waitForSelector("header", new Page.WaitForSelectorOptions().setTimeout(15000));
+            }
+            // Click followers/following link
+            String linkSelectorFollowers = "a[href$='/followers/'], a:has-text('followers'), a:has-text('подписчик')";
+            String linkSelectorFollowing = "a[href$='/following/'], a:has-text('following'), a:has-text('подписки')";
+            String selector = run.followers ? linkSelectorFollowers : linkSelectorFollowing;
+            Locator link = page.locator(selector).first();
+            link.waitFor();
+            link.click();
+            page.waitForTimeout(500);
+            // Dialog
+            Locator dialog = page.locator("div[role='dialog']").first();
+            dialog.waitFor(new Locator.WaitForOptions().setTimeout(15000));
+            // На практике у Instagram часто скроллится контейнер с классом _aano
+            Locator scrollArea = dialog.locator("div._aano, div[style*='overflow'], ul, div[role='dialog']");
+            if (scrollArea.count() == 0) scrollArea = dialog;
+            Locator list = dialog.locator("ul").first();
+            if (list.count() == 0) list = scrollArea.first();
+            // дождаться появления первых элементов списка
+            try { list.locator("li, a[href]").first().waitFor(new Locator.WaitForOptions().setTimeout(10000)); } catch (Exception ignored) {}
+            // Фокус и наведение на область прокрутки
+            try { scrollArea.first().click(); } catch (Exception ignored) {}
+            try { moveMouseToCenter(page, scrollArea.first()); } catch (Exception ignored) {}
+            // Наблюдатель за новыми строками; если внедрить не удалось — каждый шаг пересканирует DOM
+            IgRowObserver rows = run.rows();
+            if (rows != null && !rows.observe(dialog)) rows = null;
+
+            java.util.Random rnd = slow ? new java.util.Random() : null;
+            // Застой считаем по времени без прироста, а не по числу итераций
+            long stallMs = slow ? 30000 : 15000;
+            long lastGrowth = System.currentTimeMillis(); int lastCount = -1;
+            ElementHandle growthRoot = handleOf(dialog);
+            for (int i = 0; i < (slow ? 3000 : 2000); i++) {
+                checkCancelled();
+                Object before = snapshot(growthRoot);
+                int payloadsBefore = capture != null ? capture.payloads() : 0;
+                // попытаться скроллить к последнему видимому элементу
                 try {
-                    Locator lnk = page.locator("a[href$='" + suffix + "']").first();
-                    if (lnk.count() > 0) href = lnk.getAttribute("href");
-                } catch (Exception ignored) {}
-                String baseUrl = page.url();
-                int ix = baseUrl.indexOf("instagram.com/");
-                if (ix > 0) {
-                    String tail = baseUrl.substring(ix + "instagram.com/".length());
-                    int slash = tail.indexOf('/');
-                    String user = slash >= 0 ? tail.substring(0, slash) : tail;
-                    if (href == null || href.isBlank()) {
-                        href = "https://www.instagram.com/" + user + suffix;
-                    } else if (href.startsWith("/")) {
-                        href = "https://www.instagram.com" + href;
-                    }
-                    page.navigate(href);
-                    page.waitForLoadState(LoadState.DOMCONTENTLOADED);
-                    // Скроллим страницу целиком
-                    Set<String> pageNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-                    int stable2 = 0; int last2 = -1;
-                    for (int i = 0; i < (slow ? 2600 : 2000); i++) {
-                        try { page.evaluate("(d)=>{(d.scrollingElement||d.documentElement).scrollBy(0,900)}", page.mainFrame().evaluateHandle("() => document")); } catch (Exception ignored) {}
-                        try { page.keyboard().press("PageDown"); } catch (Exception ignored) {}
-                        page.waitForTimeout(slow ? 900 : 600);
-                        pageNames.addAll(extractUsernames(page.locator("main")));
-                        int cur2 = pageNames.size();
-                        if (expectedTotal != null && expectedTotal > 0 && cur2 >= expectedTotal) break;
-                        if (cur2 == last2) { stable2++; if (stable2 >= (slow ? 14 : 10)) break; } else { stable2 = 0; last2 = cur2; }
+                    Locator items = list.locator("li");
+                    int cnt = items.count();
+                    if (cnt > 0) {
+                        items.nth(Math.max(0, cnt - 1)).scrollIntoViewIfNeeded();
+                    } else {
+                        // запасной вариант: прокрутка контейнера
+                        scrollArea.first().evaluate("(el)=>{el.scrollTop = el.scrollHeight}");
                     }
-                    names.addAll(pageNames);
+                } catch (Exception ignored) {}
+
+                // Доп. прокрутка: реальная прокрутка колесом мыши над контейнером, затем scrollBy и PageDown как бэкап.
+                // Паузы между шагами остаются только в медленном режиме
+                try { wheelScrollOver(page, scrollArea.first(), slow ? 4 : 3, slow ? 200 : 220, slow ? 120 : 0); } catch (Exception ignored) {}
+                for (int step = 0; step < (slow ? 4 : 3); step++) {
+                    try { scrollArea.first().hover(); } catch (Exception ignored) {}
+                    int dy = slow ? 520 + (rnd.nextInt(3) * 60) : 600;
+                    try { scrollArea.first().evaluate("(el,dy)=>{el.scrollBy(0, dy)}", dy); } catch (Exception ignored) {}
+                    if (slow) page.waitForTimeout(380);
                 }
-            } catch (Exception ignored) {}
+                try { page.keyboard().press("PageDown"); } catch (Exception ignored) {}
+
+                // Если есть кнопки типа "Показать ещё" — кликнуть
+                try {
+                    Locator more = dialog.locator("text=Показать ещё, text=Show more").first();
+                    if (more.count() > 0 && more.isVisible()) more.click();
+                } catch (Exception ignored) {}
+
+                // Ждём прироста списка или очередного ответа со страницей подписчиков; таймаут — только потолок
+                waitForGrowth(page, growthRoot, before, capture, payloadsBefore, slow ? 3000 : 2000);
+                List<String> added = collectStep(capture, rows, dialog, names, run.ckpt);
+                if (run.deltaReached(added, null)) break; // дальше идут уже известные связи
+                int cur = names.size();
+                run.report(cur);
+                if (expectedTotal != null && expectedTotal > 0 && cur >= expectedTotal) {
+                    break; // достигли ожидаемого размера
+                }
+                if (run.apiFinished()) {
+                    break; // API сообщил, что следующих страниц нет
+                }
+                long now = System.currentTimeMillis();
+                if (cur != lastCount) { lastCount = cur; lastGrowth = now; }
+                else if (now - lastGrowth >= stallMs) break;
+            }
+            disposeQuietly(growthRoot);
+            if (rows != null) {
+                // Один полный проход в конце — страховка на случай строк, изменённых без добавления узлов
+                rows.disconnect(dialog);
+                if (capture == null || capture.payloads() == 0) addAll(names, extractUsernames(dialog), run.ckpt);
+            }
+            // Close dialog with Escape
+            page.keyboard().press("Escape");
         }
-        // Мобильный фолбек: m.instagram.com, если по-прежнему недобор
-        if (expectedTotal != null && names.size() + 3 < expectedTotal) {
+    }
+
+    // Отдельная страница www.instagram.com/<user>/followers/, скроллится целиком
+    private static class PageStrategy implements IgCollectStrategy {
+        @Override public String name() { return "page"; }
+
+        @Override
+        public void collect(CollectRun run) {
+            Page page = run.page;
+            String suffix = run.suffix();
+            String href = null;
             try {
-                String suffix = followers ? "/followers/" : "/following/";
-                String baseUrl = page.url();
-                int ix = baseUrl.indexOf("instagram.com/");
-                if (ix > 0) {
-                    String tail = baseUrl.substring(ix + "instagram.com/".length());
-                    int slash = tail.indexOf('/');
-                    String user = slash >= 0 ? tail.substring(0, slash) : tail;
-                    String href = "https://m.instagram.com/" + user + suffix;
-                    page.navigate(href);
-                    try { page.waitForLoadState(LoadState.DOMCONTENTLOADED); } catch (Exception ignored) {}
-                    Set<String> pageNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-                    int stable3 = 0; int last3 = -1;
-                    for (int i = 0; i < (slow ? 2800 : 2200); i++) {
-                        try { page.evaluate("(d)=>{(d.scrollingElement||d.documentElement).scrollBy(0,800)}", page.mainFrame().evaluateHandle("() => document")); } catch (Exception ignored) {}
-                        try { page.keyboard().press("PageDown"); } catch (Exception ignored) {}
-                        try { page.waitForLoadState(LoadState.NETWORKIDLE, new Page.WaitForLoadStateOptions().setTimeout(2000)); } catch (Exception ignored) {}
-                        page.waitForTimeout(slow ? 1000 : 700);
-                        pageNames.addAll(extractUsernames(page.locator("main")));
-                        int cur3 = pageNames.size();
-                        if (expectedTotal != null && expectedTotal > 0 && cur3 >= expectedTotal) break;
-                        if (cur3 == last3) { stable3++; if (stable3 >= (slow ? 16 : 12)) break; } else { stable3 = 0; last3 = cur3; }
-                    }
-                    names.addAll(pageNames);
-                }
+                Locator lnk = page.locator("a[href$='" + suffix + "']").first();
+                if (lnk.count() > 0) href = lnk.getAttribute("href");
             } catch (Exception ignored) {}
+            if (href == null || href.isBlank()) {
+                href = "https://www.instagram.com/" + run.username + suffix;
+            } else if (href.startsWith("/")) {
+                href = "https://www.instagram.com" + href;
+            }
+            page.navigate(href);
+            page.waitForLoadState(LoadState.DOMCONTENTLOADED);
+            scrollWholePage(run, 900, run.slow ? 2600 : 2000, run.slow ? 2000 : 1500, run.slow ? 15000 : 8000);
         }
-        return names;
     }
 
-    private static Set<String> extractUsernames(Locator root) {
-        Set<String> out = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        // 1) href patterns (absolute and relative)
-        try {
-            List<String> hrefs = root.locator("a[href]").all().stream()
-                    .map(el -> el.getAttribute("href")).filter(Objects::nonNull).collect(Collectors.toList());
-            for (String href : hrefs) {
-                String tail = href;
-                if (tail.startsWith("https://www.instagram.com/")) {
-                    tail = tail.substring("https://www.instagram.com/".length());
-                } else if (tail.startsWith("https://instagram.com/")) {
-                    tail = tail.substring("https://instagram.com/".length());
-                }
-                if (tail.startsWith("/")) tail = tail.substring(1);
-                int q = tail.indexOf('?');
-                if (q >= 0) tail = tail.substring(0, q);
-                int slash = tail.indexOf('/');
-                if (slash >= 0) tail = tail.substring(0, slash);
-                String user = tail.replaceAll("[^a-z0-9._]", "").toLowerCase(Locale.ROOT);
-                if (!user.isEmpty() && user.length() <= 30 && !"p".equals(user) && !"accounts".equals(user)) out.add(user);
+    // Мобильная версия m.instagram.com/<user>/followers/; без ожидаемого размера не запускается, как и раньше
+    private static class MobileStrategy implements IgCollectStrategy {
+        @Override public String name() { return "mobile"; }
+
+        @Override
+        public boolean applicable(CollectRun run) {
+            return run.expectedTotal != null;
+        }
+
+        @Override
+        public void collect(CollectRun run) {
+            Page page = run.page;
+            page.navigate("https://m.instagram.com/" + run.username + run.suffix());
+            try { page.waitForLoadState(LoadState.DOMCONTENTLOADED); } catch (Exception ignored) {}
+            scrollWholePage(run, 800, run.slow ? 2800 : 2200, run.slow ? 3000 : 2500, run.slow ? 25000 : 15000);
+        }
+    }
+
+    // Общий цикл для стратегий, которые скроллят страницу целиком и читают список из main
+    private static void scrollWholePage(CollectRun run, int dy, int maxIterations, long waitCeilingMs, long stallMs) {
+        Page page = run.page;
+        IgFollowListCapture capture = run.capture;
+        Integer expectedTotal = run.expectedTotal;
+        Locator main = page.locator("main");
+        IgRowObserver rows = run.rows();
+        IgRowObserver pageRows = rows != null && rows.observe(main) ? rows : null;
+        Set<String> pageNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        int unseen = 0; // собранные здесь usernames, которых не нашли предыдущие стратегии
+        long lastGrowth = System.currentTimeMillis(); int last = -1;
+        ElementHandle root = handleOf(main);
+        for (int i = 0; i < maxIterations; i++) {
+            checkCancelled();
+            Object before = snapshot(root);
+            int payloadsBefore = capture != null ? capture.payloads() : 0;
+            try { page.evaluate("(dy)=>{(document.scrollingElement||document.documentElement).scrollBy(0,dy)}", dy); } catch (Exception ignored) {}
+            try { page.keyboard().press("PageDown"); } catch (Exception ignored) {}
+            waitForGrowth(page, root, before, capture, payloadsBefore, waitCeilingMs);
+            List<String> added = collectStep(capture, pageRows, main, pageNames, run.ckpt);
+            for (String n : added) {
+                if (!run.names.contains(n)) unseen++;
             }
-        } catch (Exception ignored) {}
-        // 2) data-username attributes
-        try {
-            List<String> attrs = root.locator("*[data-username]").all().stream()
-                    .map(el -> el.getAttribute("data-username")).filter(Objects::nonNull).collect(Collectors.toList());
-            for (String v : attrs) {
-                String user = v.trim().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._]", "");
-                if (!user.isEmpty()) out.add(user);
+            if (run.deltaReached(added, pageNames)) break;
+            int cur = pageNames.size();
+            run.report(run.names.size() + unseen);
+            if (expectedTotal != null && expectedTotal > 0 && cur >= expectedTotal) break;
+            if (run.apiFinished()) break;
+            long now = System.currentTimeMillis();
+            if (cur != last) { last = cur; lastGrowth = now; }
+            else if (now - lastGrowth >= stallMs) break;
+        }
+        disposeQuietly(root);
+        run.names.addAll(pageNames);
+    }
+
+    private static boolean isProfileUrl(String url, String username) {
+        if (url == null) return false;
+        int ix = url.indexOf("instagram.com/");
+        if (ix < 0) return false;
+        String tail = url.substring(ix + "instagram.com/".length());
+        int q = tail.indexOf('?');
+        if (q >= 0) tail = tail.substring(0, q);
+        return tail.equalsIgnoreCase(username + "/") || tail.equalsIgnoreCase(username);
+    }
+
+    // Если перехват уже видел JSON со списком — берём только его (точные данные, без разбора DOM),
+    // иначе забираем новые строки от наблюдателя, а без него пересканируем DOM целиком.
+    // Возвращает usernames, которых раньше не было в names, в порядке появления на странице
+    private static List<String> collectStep(IgFollowListCapture capture, IgRowObserver rows, Locator root, Set<String> names, IgScrapeCheckpoint ckpt) {
+        List<String> added;
+        if (capture != null && capture.payloads() > 0) {
+            added = addAll(names, capture.drain(), ckpt);
+        } else if (rows != null) {
+            added = addAll(names, rows.drain(), ckpt);
+        } else {
+            added = addAll(names, extractUsernames(root), ckpt);
+        }
+        if (ckpt != null) ckpt.maybeFlush();
+        return added;
+    }
+
+    private static List<String> addAll(Set<String> names, Collection<String> batch, IgScrapeCheckpoint ckpt) {
+        List<String> added = new ArrayList<>();
+        for (String n : batch) {
+            if (names.add(n)) {
+                added.add(n);
+                if (ckpt != null) ckpt.add(n);
             }
-        } catch (Exception ignored) {}
-        // 3) img alt contains username
+        }
+        return added;
+    }
+
+    // Голова списка + прошлый снимок должны дать ровно число из шапки профиля: любая разница — это отписки
+    // в хвосте, которые иначе молча перенеслись бы из снимка. Допуск есть только у округлённого "12,3 тыс."
+    static boolean deltaMatchesHeader(Set<String> head, Set<String> known, Integer expectedTotal, int tolerance) {
+        if (expectedTotal == null || expectedTotal <= 0) return false;
+        int merged = head.size();
+        for (String k : known) if (!head.contains(k)) merged++;
+        return Math.abs(merged - expectedTotal) <= tolerance;
+    }
+
+    private static IgRowObserver installRowObserver(Page page) {
         try {
-            List<String> alts = root.locator("img[alt]").all().stream()
-                    .map(el -> el.getAttribute("alt")).filter(Objects::nonNull).collect(Collectors.toList());
-            for (String alt : alts) {
-                String cand = alt.toLowerCase(Locale.ROOT).replace("@", " ");
-                java.util.regex.Matcher m = java.util.regex.Pattern.compile("([a-z0-9._]{2,30})").matcher(cand);
-                if (m.find()) out.add(m.group(1));
-            }
-        } catch (Exception ignored) {}
-        // 4) text nodes that look like usernames (with or without leading @)
+            return IgRowObserver.install(page);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // Все четыре стратегии за один evaluate: href, data-username, img alt и innerText корня.
+    // Возвращается плоский массив кандидатов "<тип>:<значение>", разбор — на стороне Java.
+    private static final String EXTRACT_JS =
+            "(roots) => {\n" +
+            "  const out = [];\n" +
+            "  for (const r of roots) {\n" +
+            "    r.querySelectorAll('a[href]').forEach(e => out.push('h:' + e.getAttribute('href')));\n" +
+            "    r.querySelectorAll('[data-username]').forEach(e => out.push('d:' + e.getAttribute('data-username')));\n" +
+            "    r.querySelectorAll('img[alt]').forEach(e => out.push('a:' + e.getAttribute('alt')));\n" +
+            "    const t = r.innerText;\n" +
+            "    if (t && t.trim().length <= 40) out.push('t:' + t);\n" +
+            "  }\n" +
+            "  return out;\n" +
+            "}";
+
+    static Set<String> extractUsernames(Locator root) {
+        Set<String> out = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
         try {
-            List<String> texts = root.allInnerTexts();
-            for (String t : texts) {
-                if (t == null) continue;
-                String cand = t.trim();
-                // quick filter to avoid huge text blobs
-                if (cand.length() > 40) continue;
-                cand = cand.toLowerCase(Locale.ROOT);
-                if (cand.startsWith("@")) cand = cand.substring(1);
-                cand = cand.replaceAll("[^a-z0-9._]", "");
-                if (cand.matches("[a-z0-9._]{2,30}")) out.add(cand);
+            Object res = root.evaluateAll(EXTRACT_JS);
+            if (res instanceof List) {
+                for (Object cand : (List<?>) res) {
+                    if (cand != null) addIfPresent(out, usernameFromCandidate(cand.toString()));
+                }
             }
         } catch (Exception ignored) {}
         return out;
     }
 
+    /**
+     * Разбор кандидата вида "&lt;тип&gt;:&lt;значение&gt;", который присылает in-page наблюдатель
+     * (h — href, d — data-username, a — img alt, t — текст). Возвращает null, если username не найден.
+     */
+    static String usernameFromCandidate(String cand) {
+        if (cand == null || cand.length() < 2 || cand.charAt(1) != ':') return null;
+        String v = cand.substring(2);
+        switch (cand.charAt(0)) {
+            case 'h': return UsernameCodec.fromHref(v);
+            case 'd': return UsernameCodec.fromAttr(v);
+            case 'a': return UsernameCodec.fromAlt(v);
+            case 't': return UsernameCodec.fromText(v);
+            default: return null;
+        }
+    }
+
+    private static void addIfPresent(Set<String> out, String user) {
+        if (user != null) out.add(user);
+    }
+
     private static void saveArtifacts(Page page, String tag) {
         try {
             long ts = System.currentTimeMillis();
@@ -300,6 +688,26 @@ public class IgPlaywrightScraper {
         }
     }
 
+    // IG_SCRAPE_MODE=dom отключает перехват JSON-ответов и оставляет только разбор DOM
+    private static boolean isNetworkMode() {
+        try {
+            String v = System.getenv("IG_SCRAPE_MODE");
+            return v == null || !v.equalsIgnoreCase("dom");
+        } catch (Exception ignored) {
+            return true;
+        }
+    }
+
+    // IG_SCRAPE_PARALLELISM=2 собирает followers и following параллельно (ограничено размером пула браузеров)
+    private static int getParallelism() {
+        try {
+            String v = System.getenv("IG_SCRAPE_PARALLELISM");
+            return v == null || v.isBlank() ? 1 : Integer.parseInt(v.trim());
+        } catch (Exception ignored) {
+            return 1;
+        }
+    }
+
     private static boolean isSlow() {
         try {
             String v = System.getenv("IG_SLOW");
@@ -326,18 +734,60 @@ public class IgPlaywrightScraper {
     }
 
     // Эмуляция прокрутки колесом мыши над указанным контейнером
-    private static void wheelScrollOver(Page page, Locator container, int steps, int deltaY) {
+    private static void wheelScrollOver(Page page, Locator container, int steps, int deltaY, int pauseMs) {
         try {
             moveMouseToCenter(page, container);
             for (int i = 0; i < steps; i++) {
                 page.mouse().wheel(0, deltaY);
-                page.waitForTimeout(120);
+                if (pauseMs > 0) page.waitForTimeout(pauseMs);
             }
         } catch (Exception ignored) {}
     }
 
-    // Estimate expected followers/following count from profile header
-    private static Integer getExpectedCount(Page page, boolean followers) {
+    // Снимок корня списка: число строк, высота прокрутки и счётчик добавленных узлов от IgRowObserver
+    private static final String SNAPSHOT_JS = "el => [el.getElementsByTagName('li').length, el.scrollHeight, el.__igAdded || 0]";
+    private static final String GROWN_JS = "([el, s]) => el.getElementsByTagName('li').length > s[0] || el.scrollHeight > s[1] || (el.__igAdded || 0) > s[2]";
+
+    private static ElementHandle handleOf(Locator loc) {
+        try { return loc.elementHandle(new Locator.ElementHandleOptions().setTimeout(5000)); } catch (Exception e) { return null; }
+    }
+
+    private static void disposeQuietly(ElementHandle h) {
+        try { if (h != null) h.dispose(); } catch (Exception ignored) {}
+    }
+
+    private static Object snapshot(ElementHandle root) {
+        try { return root == null ? null : root.evaluate(SNAPSHOT_JS); } catch (Exception e) { return null; }
+    }
+
+    /**
+     * Ждёт, пока корень списка вырастет или придёт новый JSON со страницей списка, но не дольше ceilingMs.
+     * Ожидание нарезано на короткие отрезки, чтобы между ними успеть заметить ответ, пойманный перехватчиком.
+     */
+    private static boolean waitForGrowth(Page page, ElementHandle root, Object before, IgFollowListCapture capture, int payloadsBefore, long ceilingMs) {
+        long deadline = System.currentTimeMillis() + ceilingMs;
+        while (true) {
+            if (capture != null && capture.payloads() != payloadsBefore) return true;
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            if (root == null || before == null) {
+                page.waitForTimeout(Math.min(250, left));
+                continue;
+            }
+            try {
+                page.waitForFunction(GROWN_JS, Arrays.asList(root, before),
+                        new Page.WaitForFunctionOptions().setTimeout(Math.min(250, left)).setPollingInterval(50));
+                return true;
+            } catch (TimeoutError e) {
+                // проверим перехватчик и подождём ещё
+            } catch (Exception e) {
+                page.waitForTimeout(Math.min(250, left));
+            }
+        }
+    }
+
+    // Raw followers/following count text from profile header ("1 234", "12,3 тыс."); null if not found
+    private static String headerCountText(Page page, boolean followers) {
         try {
             String suffix = followers ? "/followers/" : "/following/";
             // try several header selectors
@@ -355,14 +805,29 @@ public class IgPlaywrightScraper {
                 Locator li = header.locator("li:has(a[href$='" + suffix + "'])").first();
                 if (li.count() > 0) text = li.innerText();
             }
-            if (text == null || text.isBlank()) return null;
-            Integer v = parseCount(text);
-            return v;
+            return text == null || text.isBlank() ? null : text;
         } catch (Exception ignored) { return null; }
     }
 
+    /**
+     * Насколько число из шапки может отличаться от настоящего: 0 для точного "1 234",
+     * половина последнего показанного разряда для округлённого — "12,3 тыс." ±50, "1 млн" ±500 000.
+     */
+    static int roundingTolerance(String raw) {
+        if (raw == null) return 0;
+        String s = raw.trim().toLowerCase(Locale.ROOT).replace("\u00A0", "").replace("\u2009", "").replace("\u202F", "").replace(" ", "");
+        long unit;
+        if (s.contains("млн") || s.contains("m")) unit = 1_000_000;
+        else if (s.contains("тыс") || s.contains("k")) unit = 1_000;
+        else return 0;
+        String num = s.replaceAll("[^0-9,.]", "").replaceAll("[,.]+$", "");
+        int sep = Math.max(num.lastIndexOf(','), num.lastIndexOf('.'));
+        int decimals = sep < 0 ? 0 : num.length() - sep - 1;
+        return (int) Math.ceil(unit / Math.pow(10, decimals) / 2);
+    }
+
     // Parse counts like "1 234", "12,345", "1.2k", "1,2 млн", "3 тыс."
-    private static Integer parseCount(String raw) {
+    static Integer parseCount(String raw) {
         if (raw == null) return null;
         String s = raw.trim().toLowerCase(Locale.ROOT);
         // normalize spaces and thin spaces
@@ -376,7 +841,7 @@ public class IgPlaywrightScraper {
         boolean hasM = s.endsWith("m") || s.contains("m");
         // extract number part with decimal comma/dot
         String num = s.replaceAll("[^0-9, .]", "");
-        num = num.replace(',', '.');
+        num = num.replace(',', '.').replaceAll("\\.+$", ""); // точка от сокращения 'тыс.'
         try {
             if (millionRu || hasM) {
                 double v = Double.parseDouble(num);
@@ -0,0 +1,136 @@
+package com.example.igbot.playwright;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Request;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Политика загрузки ресурсов для контекста скрейпинга: запросы с запрещённым типом ресурса
+ * или URL обрываются через context.route, остальные пропускаются. XHR/GraphQL и документы
+ * по умолчанию не блокируются — из них и берутся списки.
+ *
+ * Настройки (env):
+ * IG_BLOCK_TYPES — типы ресурсов через запятую (по умолчанию image,media,font; "none" — ничего не блокировать),
+ * IG_BLOCK_URLS — подстроки URL, которые блокируются всегда,
+ * IG_ALLOW_URLS — подстроки URL, которые пропускаются всегда (важнее запретов).
+ */
+public class IgRoutePolicy {
+    // Примерный средний размер заблокированного ответа — только для оценки сэкономленного трафика
+    private static final Map<String, Long> AVG_BYTES = Map.of(
+            "image", 40_000L,
+            "media", 500_000L,
+            "font", 60_000L,
+            "stylesheet", 30_000L);
+
+    private final Set<String> blockTypes;
+    private final List<String> blockUrls;
+    private final List<String> allowUrls;
+
+    public IgRoutePolicy(Set<String> blockTypes, List<String> blockUrls, List<String> allowUrls) {
+        this.blockTypes = blockTypes;
+        this.blockUrls = blockUrls;
+        this.allowUrls = allowUrls;
+    }
+
+    public static IgRoutePolicy fromEnv() {
+        String types = getenvSafe("IG_BLOCK_TYPES");
+        Set<String> blockTypes = new HashSet<>();
+        if (types == null || types.isBlank()) {
+            blockTypes.addAll(Arrays.asList("image", "media", "font"));
+        } else if (!types.trim().equalsIgnoreCase("none")) {
+            for (String t : splitList(types)) blockTypes.add(t.toLowerCase(Locale.ROOT));
+        }
+        return new IgRoutePolicy(blockTypes, splitList(getenvSafe("IG_BLOCK_URLS")), splitList(getenvSafe("IG_ALLOW_URLS")));
+    }
+
+    public boolean isEmpty() {
+        return blockTypes.isEmpty() && blockUrls.isEmpty();
+    }
+
+    public boolean blocks(String resourceType, String url) {
+        if (url != null) {
+            for (String a : allowUrls) if (url.contains(a)) return false;
+            for (String b : blockUrls) if (url.contains(b)) return true;
+        }
+        return resourceType != null && blockTypes.contains(resourceType);
+    }
+
+    /** Повесить политику на контекст; счётчики копятся в возвращаемом Stats. */
+    public Stats install(BrowserContext context) {
+        Stats stats = new Stats();
+        if (isEmpty()) return stats;
+        context.route("**/*", route -> {
+            Request r = route.request();
+            String type = r.resourceType();
+            if (blocks(type, r.url())) {
+                stats.blocked(type);
+                route.abort();
+            } else {
+                stats.allowed.incrementAndGet();
+                route.resume();
+            }
+        });
+        context.onResponse(res -> {
+            try {
+                String len = res.headers().get("content-length");
+                if (len != null) stats.allowedBytes.addAndGet(Long.parseLong(len.trim()));
+            } catch (Exception ignored) {}
+        });
+        return stats;
+    }
+
+    public static class Stats {
+        private final Map<String, AtomicLong> blockedByType = new ConcurrentHashMap<>();
+        private final AtomicLong allowed = new AtomicLong();
+        private final AtomicLong allowedBytes = new AtomicLong();
+
+        void blocked(String type) {
+            blockedByType.computeIfAbsent(type == null ? "other" : type, k -> new AtomicLong()).incrementAndGet();
+        }
+
+        public long blockedCount() {
+            long n = 0;
+            for (AtomicLong v : blockedByType.values()) n += v.get();
+            return n;
+        }
+
+        public long allowedCount() { return allowed.get(); }
+
+        public long allowedBytes() { return allowedBytes.get(); }
+
+        /** Оценка: число заблокированных запросов каждого типа, умноженное на типичный размер ответа. */
+        public long estimatedSavedBytes() {
+            long n = 0;
+            for (Map.Entry<String, AtomicLong> e : blockedByType.entrySet()) {
+                n += e.getValue().get() * AVG_BYTES.getOrDefault(e.getKey(), 10_000L);
+            }
+            return n;
+        }
+
+        public String summary() {
+            return String.format(Locale.ROOT, "blocked=%d %s allowed=%d allowedBytes=%d savedBytes≈%d",
+                    blockedCount(), new TreeMap<>(blockedByType), allowedCount(), allowedBytes(), estimatedSavedBytes());
+        }
+    }
+
+    private static List<String> splitList(String v) {
+        List<String> out = new ArrayList<>();
+        if (v == null) return out;
+        for (String p : v.split(",")) {
+            String t = p.trim();
+            if (!t.isEmpty()) out.add(t);
+        }
+        return out;
+    }
+
+    private static String getenvSafe(String name) {
+        try {
+            return System.getenv(name);
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.igbot.playwright;
+
+import com.microsoft.playwright.Locator;
+import com.microsoft.playwright.Page;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Инкрементальный сбор строк списка: в страницу внедряется MutationObserver, который смотрит только
+ * на добавленные узлы и пачками (раз в ~100 мс) отдаёт их кандидатов в Java через exposeFunction.
+ * Цикл скролла забирает только новое через {@link #drain()}, поэтому стоимость итерации не растёт
+ * вместе с количеством уже загруженных строк.
+ */
+public class IgRowObserver {
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    // (el, fn) — корень наблюдения и имя функции, проброшенной через exposeFunction.
+    // Кандидаты кодируются как "<тип>:<значение>", см. IgPlaywrightScraper.usernameFromCandidate.
+    // el.__igAdded — счётчик добавленных узлов, по нему цикл скролла понимает, что список вырос.
+    // Текст строк намеренно не отправляется: в строках есть "Follow"/"Remove", это даёт ложные срабатывания.
+    private static final String OBSERVE_JS =
+            "(el, fn) => {\n" +
+            "  if (el.__igObs) el.__igObs.disconnect();\n" +
+            "  const seen = new Set();\n" +
+            "  let buf = [], timer = null;\n" +
+            "  const push = (k, v) => { if (!v) return; const c = k + v; if (!seen.has(c)) { seen.add(c); buf.push(c); } };\n" +
+            "  const visit = (e) => {\n" +
+            "    if (e.matches('a[href]')) push('h:', e.getAttribute('href'));\n" +
+            "    if (e.hasAttribute('data-username')) push('d:', e.getAttribute('data-username'));\n" +
+            "    if (e.matches('img[alt]')) push('a:', e.getAttribute('alt'));\n" +
+            "  };\n" +
+            "  const scan = (n) => {\n" +
+            "    if (n.nodeType !== 1) return;\n" +
+            "    visit(n);\n" +
+            "    n.querySelectorAll('a[href], [data-username], img[alt]').forEach(visit);\n" +
+            "  };\n" +
+            "  const flush = () => { timer = null; if (buf.length) { const b = buf; buf = []; window[fn](b.join('\\n')); } };\n" +
+            "  const obs = new MutationObserver((ms) => {\n" +
+            "    for (const m of ms) { el.__igAdded = (el.__igAdded || 0) + m.addedNodes.length; m.addedNodes.forEach(scan); }\n" +
+            "    if (!timer && buf.length) timer = setTimeout(flush, 100);\n" +
+            "  });\n" +
+            "  obs.observe(el, {childList: true, subtree: true});\n" +
+            "  el.__igObs = obs;\n" +
+            "  scan(el);\n" +
+            "  flush();\n" +
+            "}";
+
+    private final String fn;
+    private final List<String> pending = new ArrayList<>();
+
+    private IgRowObserver(String fn) {
+        this.fn = fn;
+    }
+
+    /** Пробросить функцию приёма пачек в страницу. Переживает навигации, поэтому ставится один раз. */
+    public static IgRowObserver install(Page page) {
+        IgRowObserver o = new IgRowObserver("__igRows" + SEQ.incrementAndGet());
+        page.exposeFunction(o.fn, args -> {
+            if (args.length > 0 && args[0] != null) o.push(args[0].toString());
+            return null;
+        });
+        return o;
+    }
+
+    /** Начать наблюдение за новым корнем (диалог или main на странице фолбека). Текущие строки отдаются сразу. */
+    public boolean observe(Locator root) {
+        try {
+            root.evaluate(OBSERVE_JS, fn);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public void disconnect(Locator root) {
+        try { root.evaluate("el => { if (el.__igObs) { el.__igObs.disconnect(); el.__igObs = null; } }"); } catch (Exception ignored) {}
+    }
+
+    /** Usernames из строк, добавленных с прошлого вызова. */
+    public Set<String> drain() {
+        List<String> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return Collections.emptySet();
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        Set<String> out = new LinkedHashSet<>();
+        for (String cand : batch) {
+            String user = IgPlaywrightScraper.usernameFromCandidate(cand);
+            if (user != null) out.add(user);
+        }
+        return out;
+    }
+
+    private void push(String joined) {
+        synchronized (pending) {
+            for (String c : joined.split("\n")) {
+                if (!c.isEmpty()) pending.add(c);
+            }
+        }
+    }
+}
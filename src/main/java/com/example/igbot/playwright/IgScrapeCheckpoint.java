@@ -0,0 +1,202 @@
+package com.example.igbot.playwright;
+
+import com.example.igbot.util.UsernameCodec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only чекпоинт сбора одного списка (followers или following) одного аккаунта.
+ * Файл IG_CHECKPOINT_DIR/&lt;user&gt;-&lt;followers|following&gt;.ckpt состоит из строк:
+ * <pre>
+ * H &lt;user&gt; &lt;list&gt; &lt;createdMs&gt;   заголовок
+ * P &lt;phase&gt; &lt;expected|-&gt;            смена фазы (dialog/page/mobile)
+ * N &lt;username&gt;                       собранный username
+ * D                                  список собран полностью
+ * </pre>
+ * Дописываются только новые usernames, раз в несколько секунд, поэтому запись дешёвая и на 100k строк.
+ * Оборванная при падении последняя строка при чтении просто отбрасывается.
+ * Файл принадлежит одному сбору: пока он открыт, параллельный сбор того же аккаунта (из другого чата)
+ * идёт без чекпоинта, а {@link #discard} такие файлы не трогает.
+ *
+ * Настройки (env): IG_CHECKPOINT (false — отключить), IG_CHECKPOINT_DIR (по умолчанию checkpoints),
+ * IG_CHECKPOINT_TTL_HOURS (по умолчанию 24 — более старые чекпоинты игнорируются).
+ */
+public class IgScrapeCheckpoint implements AutoCloseable {
+    private static final long FLUSH_INTERVAL_MS = 5000;
+
+    // Файлы, открытые идущими сборами
+    private static final Set<Path> claimed = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> restored;
+    private final boolean done;
+    private final Set<String> written;
+    private final List<String> buffer = new ArrayList<>();
+    private Path file;
+    private BufferedWriter out;
+    private long lastFlush = System.currentTimeMillis();
+
+    private IgScrapeCheckpoint(Set<String> restored, boolean done) {
+        this.restored = restored;
+        this.done = done;
+        this.written = new HashSet<>(restored);
+    }
+
+    /**
+     * Открыть (или продолжить) чекпоинт; null, если чекпоинты отключены, каталог недоступен
+     * или этот список того же аккаунта сейчас собирает другой запуск.
+     */
+    public static IgScrapeCheckpoint open(String target, boolean followers) {
+        if (!isEnabled() || target == null || target.isBlank()) return null;
+        Path file = fileFor(Paths.get(getenvOr("IG_CHECKPOINT_DIR", "checkpoints")), target, followers);
+        if (!claimed.add(file)) return null;
+        try {
+            Files.createDirectories(file.getParent());
+            Set<String> restored = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            boolean done = false;
+            boolean fresh = Files.exists(file) && isFresh(file);
+            if (fresh) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("N ")) {
+                        String name = line.substring(2).trim();
+                        if (UsernameCodec.isValid(name)) restored.add(name);
+                    } else if (line.equals("D")) {
+                        done = true;
+                    }
+                }
+            }
+            IgScrapeCheckpoint c = new IgScrapeCheckpoint(restored, done);
+            c.file = file;
+            if (!done) {
+                c.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, fresh ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+                if (!fresh) c.writeLine("H " + target + " " + listName(followers) + " " + System.currentTimeMillis());
+                else c.out.write('\n'); // на случай оборванной последней строки
+                c.out.flush();
+            }
+            return c;
+        } catch (Exception e) {
+            claimed.remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * Удалить чекпоинты аккаунта — после успешного сбора обоих списков или перед /scrape fresh,
+     * которому прошлый результат не нужен. Файлы, открытые другим идущим сбором, остаются.
+     */
+    public static void discard(String target) {
+        if (target == null || target.isBlank()) return;
+        Path dir = Paths.get(getenvOr("IG_CHECKPOINT_DIR", "checkpoints"));
+        for (boolean followers : new boolean[] {true, false}) {
+            Path file = fileFor(dir, target, followers);
+            if (!claimed.add(file)) continue;
+            try {
+                Files.deleteIfExists(file);
+            } catch (Exception ignored) {
+            } finally {
+                claimed.remove(file);
+            }
+        }
+    }
+
+    /** Usernames, собранные прошлым (прерванным) запуском. */
+    public Set<String> restored() { return restored; }
+
+    /** Прошлый запуск уже собрал этот список целиком — скроллить не нужно. */
+    public boolean isDone() { return done; }
+
+    public void phase(String phase, Integer expected) {
+        if (out == null) return;
+        flushBuffer();
+        writeLine("P " + phase + " " + (expected == null ? "-" : expected.toString()));
+        flushQuietly();
+    }
+
+    public void add(String name) {
+        if (out == null || name == null) return;
+        if (written.add(name)) buffer.add(name);
+    }
+
+    /** Сбросить накопленное на диск, если с прошлой записи прошло достаточно времени. */
+    public void maybeFlush() {
+        if (out == null) return;
+        long now = System.currentTimeMillis();
+        if (now - lastFlush < FLUSH_INTERVAL_MS) return;
+        flushBuffer();
+        flushQuietly();
+    }
+
+    public void complete() {
+        if (out == null) return;
+        flushBuffer();
+        writeLine("D");
+        flushQuietly();
+    }
+
+    @Override
+    public void close() {
+        if (file != null) claimed.remove(file);
+        file = null;
+        if (out == null) return;
+        flushBuffer();
+        try { out.close(); } catch (IOException ignored) {}
+        out = null;
+    }
+
+    private void flushBuffer() {
+        for (String n : buffer) writeLine("N " + n);
+        buffer.clear();
+    }
+
+    private void flushQuietly() {
+        lastFlush = System.currentTimeMillis();
+        try { out.flush(); } catch (IOException ignored) {}
+    }
+
+    private void writeLine(String line) {
+        try {
+            out.write(line);
+            out.write('\n');
+        } catch (IOException ignored) {}
+    }
+
+    private static Path fileFor(Path dir, String target, boolean followers) {
+        String safe = UsernameCodec.normalize(target);
+        return dir.resolve(safe + "-" + listName(followers) + ".ckpt");
+    }
+
+    private static String listName(boolean followers) {
+        return followers ? "followers" : "following";
+    }
+
+    private static boolean isFresh(Path file) {
+        try {
+            long ttlMs = IgBrowserPool.getenvInt("IG_CHECKPOINT_TTL_HOURS", 24) * 3_600_000L;
+            return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() < ttlMs;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isEnabled() {
+        String v = getenvOr("IG_CHECKPOINT", "true");
+        return !v.equalsIgnoreCase("false");
+    }
+
+    private static String getenvOr(String name, String def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : v;
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.igbot.playwright;
+
+/**
+ * Канал прогресса сбора наружу (например, в статусное сообщение Telegram).
+ * Вызывается из потоков скрейпинга на каждом шаге скролла, поэтому реализация сама решает, как часто
+ * что-то показывать; при параллельном сборе followers и following приходят из разных потоков.
+ */
+public interface IgScrapeProgress {
+    IgScrapeProgress NONE = (followers, phase, collected, expected) -> {};
+
+    /**
+     * @param followers какой список собирается
+     * @param phase     стратегия сбора (dialog/page/mobile) или "done"
+     * @param collected сколько usernames собрано к этому моменту
+     * @param expected  число из шапки профиля; null, если не удалось прочитать
+     */
+    void update(boolean followers, String phase, int collected, Integer expected);
+}
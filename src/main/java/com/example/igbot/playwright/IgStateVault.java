@@ -0,0 +1,200 @@
+package com.example.igbot.playwright;
+
+import com.example.igbot.util.AppCookie;
+import com.example.igbot.util.UsernameCodec;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Хранилище Playwright storage state (cookies + localStorage) после входа, отдельно для каждой пары
+ * чат + аккаунт Instagram: другой чат чужим входом воспользоваться не может.
+ * Файлы IG_VAULT_DIR/&lt;chatId&gt;_&lt;account&gt;.state зашифрованы AES-256-GCM; ключ выводится из IG_VAULT_KEY
+ * (PBKDF2 с солью из .salt), а без него генерируется случайный и кладётся в .key с правами только для владельца.
+ * Годность проверяется без браузера и сети — по сроку cookie sessionid. State подаётся прямо в
+ * Browser.NewContextOptions.setStorageState, так что контекст сразу создаётся залогиненным.
+ */
+public class IgStateVault {
+    private static final Logger log = LoggerFactory.getLogger(IgStateVault.class);
+
+    private static final byte[] MAGIC = {'I', 'G', 'V', '1'};
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int PBKDF2_ITERATIONS = 200_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path dir;
+    private final String passphrase;
+    private SecretKey key;
+
+    public IgStateVault(Path dir, String passphrase) {
+        this.dir = dir;
+        this.passphrase = passphrase == null || passphrase.isBlank() ? null : passphrase;
+    }
+
+    public static IgStateVault fromEnv() {
+        String d = System.getenv("IG_VAULT_DIR");
+        return new IgStateVault(Paths.get(d == null || d.isBlank() ? "vault" : d), System.getenv("IG_VAULT_KEY"));
+    }
+
+    public synchronized void save(long chatId, String account, String storageState) {
+        if (storageState == null) return;
+        try {
+            Files.createDirectories(dir);
+            byte[] iv = new byte[IV_BYTES];
+            RANDOM.nextBytes(iv);
+            Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            c.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+            c.updateAAD(aad(chatId, account));
+            byte[] sealed = c.doFinal(storageState.getBytes(StandardCharsets.UTF_8));
+            Path file = fileFor(chatId, account);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, ByteBuffer.allocate(MAGIC.length + IV_BYTES + sealed.length).put(MAGIC).put(iv).put(sealed).array());
+            restrict(tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("cannot save storage state for {}", account, e);
+        }
+    }
+
+    /**
+     * Расшифрованный state или null. Истёкший state тоже возвращается: годность проверяет {@link #isLoggedIn},
+     * а для повторного входа он всё равно полезен — Instagram узнаёт устройство по остальным cookies.
+     */
+    public synchronized String load(long chatId, String account) {
+        Path file = fileFor(chatId, account);
+        try {
+            if (!Files.exists(file)) return null;
+            byte[] raw = Files.readAllBytes(file);
+            if (raw.length < MAGIC.length + IV_BYTES || !Arrays.equals(Arrays.copyOf(raw, MAGIC.length), MAGIC)) return null;
+            Cipher c = Cipher.getInstance("AES/GCM/NoPadding");
+            c.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, raw, MAGIC.length, IV_BYTES));
+            c.updateAAD(aad(chatId, account));
+            return new String(c.doFinal(raw, MAGIC.length + IV_BYTES, raw.length - MAGIC.length - IV_BYTES), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            // Другой ключ или повреждённый файл — считаем, что входа нет
+            log.debug("cannot load storage state for {}", account, e);
+            return null;
+        }
+    }
+
+    /** Самый свежий годный вход этого чата (для /scrape и /watch без активной сессии). */
+    public synchronized String latest(long chatId) {
+        String prefix = chatId + "_";
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*.state")) {
+            for (Path p : ds) files.add(p);
+        } catch (Exception e) {
+            return null;
+        }
+        files.sort(Comparator.comparingLong((Path p) -> p.toFile().lastModified()).reversed());
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            String state = load(chatId, name.substring(prefix.length(), name.length() - ".state".length()));
+            if (state != null && isLoggedIn(state)) return state;
+        }
+        return null;
+    }
+
+    public synchronized void delete(long chatId, String account) {
+        try { Files.deleteIfExists(fileFor(chatId, account)); } catch (Exception ignored) {}
+    }
+
+    /** Есть ли в state непросроченная cookie sessionid для instagram.com. */
+    public static boolean isLoggedIn(String storageState) {
+        try {
+            JsonObject root = JsonParser.parseString(storageState).getAsJsonObject();
+            double now = System.currentTimeMillis() / 1000.0;
+            for (JsonElement e : root.getAsJsonArray("cookies")) {
+                JsonObject c = e.getAsJsonObject();
+                if (!"sessionid".equals(c.get("name").getAsString())) continue;
+                if (!c.get("domain").getAsString().endsWith("instagram.com")) continue;
+                if (c.get("value").getAsString().isEmpty()) continue;
+                double expires = c.has("expires") ? c.get("expires").getAsDouble() : -1;
+                if (expires < 0 || expires > now) return true;
+            }
+        } catch (Exception ignored) {}
+        return false;
+    }
+
+    /** Cookies из файла пользователя в формате storage state — контекст получает их целиком при создании. */
+    public static String stateFromCookies(Set<AppCookie> cookies) {
+        JsonArray list = new JsonArray();
+        if (cookies != null) {
+            for (AppCookie c : cookies) {
+                JsonObject o = new JsonObject();
+                o.addProperty("name", c.name);
+                o.addProperty("value", c.value);
+                o.addProperty("domain", c.domain == null ? ".instagram.com" : c.domain);
+                o.addProperty("path", c.path == null ? "/" : c.path);
+                o.addProperty("expires", c.expiresEpochSeconds == null || c.expiresEpochSeconds <= 0 ? -1 : c.expiresEpochSeconds);
+                o.addProperty("httpOnly", c.httpOnly);
+                o.addProperty("secure", c.secure);
+                o.addProperty("sameSite", "Lax");
+                list.add(o);
+            }
+        }
+        JsonObject root = new JsonObject();
+        root.add("cookies", list);
+        root.add("origins", new JsonArray());
+        return root.toString();
+    }
+
+    private SecretKey key() throws Exception {
+        if (key != null) return key;
+        Files.createDirectories(dir);
+        if (passphrase != null) {
+            byte[] salt = readOrCreate(dir.resolve(".salt"), 16);
+            SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            byte[] k = f.generateSecret(new PBEKeySpec(passphrase.toCharArray(), salt, PBKDF2_ITERATIONS, 256)).getEncoded();
+            key = new SecretKeySpec(k, "AES");
+        } else {
+            log.warn("IG_VAULT_KEY is not set, using a generated key in {}", dir.resolve(".key"));
+            key = new SecretKeySpec(readOrCreate(dir.resolve(".key"), 32), "AES");
+        }
+        return key;
+    }
+
+    private static byte[] readOrCreate(Path file, int size) throws Exception {
+        if (Files.exists(file)) {
+            byte[] b = Files.readAllBytes(file);
+            if (b.length == size) return b;
+        }
+        byte[] b = new byte[size];
+        RANDOM.nextBytes(b);
+        Files.write(file, b);
+        restrict(file);
+        return b;
+    }
+
+    private static void restrict(Path file) {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (Exception ignored) {} // не POSIX (Windows) — остаётся как есть
+    }
+
+    // Шифротекст привязан к чату и аккаунту: переименованный файл не расшифруется
+    private static byte[] aad(long chatId, String account) {
+        return (chatId + "|" + UsernameCodec.normalize(account)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Path fileFor(long chatId, String account) {
+        return dir.resolve(chatId + "_" + UsernameCodec.normalize(account) + ".state");
+    }
+}
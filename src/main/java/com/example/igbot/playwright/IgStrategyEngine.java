@@ -0,0 +1,101 @@
+package com.example.igbot.playwright;
+
+import java.util.*;
+
+/**
+ * Выбор порядка стратегий сбора списка по накопленной статистике.
+ * Для каждой стратегии и "корзины" размера аккаунта (по ожидаемому числу из шапки профиля)
+ * запоминается, какую долю оставшегося недобора она закрыла и сколько времени заняла.
+ * Стратегии упорядочиваются по доле закрытого недобора (при равенстве — по времени, затем в исходном порядке),
+ * а стабильно бесполезные после IG_STRATEGY_MIN_RUNS запусков пропускаются — кроме каждого
+ * EXPLORE_EVERY-го плана, чтобы заметить, что стратегия снова заработала.
+ */
+public class IgStrategyEngine {
+    private static final int EXPLORE_EVERY = 10;
+    private static final double USELESS_GAP_CLOSED = 0.05;
+
+    private static final IgStrategyEngine SHARED = new IgStrategyEngine(IgBrowserPool.getenvInt("IG_STRATEGY_MIN_RUNS", 3));
+
+    private static class Stat {
+        int runs;
+        double gapClosedSum;
+        long elapsedSum;
+
+        // Неопробованной стратегии даём нейтральную оценку: она не вытесняет хорошо работающие, но обгоняет плохие
+        double avgGapClosed() { return runs == 0 ? 0.5 : gapClosedSum / runs; }
+        long avgElapsed() { return runs == 0 ? 0 : elapsedSum / runs; }
+    }
+
+    private final int minRuns;
+    private final Map<String, Stat> stats = new HashMap<>();
+    private final Map<String, Integer> plans = new HashMap<>();
+
+    public IgStrategyEngine(int minRuns) {
+        this.minRuns = Math.max(1, minRuns);
+    }
+
+    public static IgStrategyEngine shared() { return SHARED; }
+
+    static String bucket(Integer expected) {
+        if (expected == null || expected <= 0) return "unknown";
+        if (expected < 1_000) return "<1k";
+        if (expected < 10_000) return "<10k";
+        if (expected < 100_000) return "<100k";
+        return ">=100k";
+    }
+
+    /** Порядок запуска для стратегий, перечисленных в порядке по умолчанию. */
+    public synchronized List<String> plan(List<String> defaults, Integer expected) {
+        String b = bucket(expected);
+        int n = plans.merge(b, 1, Integer::sum);
+        boolean explore = n % EXPLORE_EVERY == 0;
+        List<String> out = new ArrayList<>();
+        for (String name : defaults) {
+            Stat st = stats.get(key(name, b));
+            boolean useless = st != null && st.runs >= minRuns && st.avgGapClosed() < USELESS_GAP_CLOSED;
+            if (!useless || explore) out.add(name);
+        }
+        // Stable sort: при равенстве сохраняется порядок по умолчанию
+        out.sort(Comparator.comparingDouble((String name) -> -statOf(name, b).avgGapClosed())
+                .thenComparingLong(name -> statOf(name, b).avgElapsed()));
+        if (out.isEmpty()) out.addAll(defaults);
+        return out;
+    }
+
+    /**
+     * Итог запуска стратегии: before/after — размер списка до и после неё.
+     * Без ожидаемого размера засчитывается просто факт прироста.
+     */
+    public synchronized void record(String name, Integer expected, int before, int after, long elapsedMs) {
+        double gapClosed;
+        if (expected == null || expected <= 0) {
+            gapClosed = after > before ? 1.0 : 0.0;
+        } else {
+            int gap = Math.max(1, expected - before);
+            gapClosed = Math.min(1.0, Math.max(0, after - before) / (double) gap);
+        }
+        Stat st = stats.computeIfAbsent(key(name, bucket(expected)), k -> new Stat());
+        st.runs++;
+        st.gapClosedSum += gapClosed;
+        st.elapsedSum += elapsedMs;
+    }
+
+    public synchronized String stats() {
+        if (stats.isEmpty()) return "Стратегии сбора: статистики пока нет";
+        StringBuilder sb = new StringBuilder("Стратегии сбора (запуски / закрыто недобора / среднее время):");
+        for (Map.Entry<String, Stat> e : new TreeMap<>(stats).entrySet()) {
+            Stat st = e.getValue();
+            sb.append(String.format(Locale.ROOT, "\n%s: %d / %.0f%% / %d с", e.getKey(), st.runs, st.avgGapClosed() * 100, st.avgElapsed() / 1000));
+        }
+        return sb.toString();
+    }
+
+    private Stat statOf(String name, String bucket) {
+        Stat st = stats.get(key(name, bucket));
+        return st == null ? new Stat() : st;
+    }
+
+    private static String key(String name, String bucket) {
+        return name + " " + bucket;
+    }
+}
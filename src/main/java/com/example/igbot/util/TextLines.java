@@ -0,0 +1,157 @@
+package com.example.igbot.util;
+
+import java.io.*;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Потоковое чтение присланных текстовых файлов по строкам: UTF-8 декодируется по мере чтения,
+ * каждая строка сразу отдаётся обработчику, а весь файл целиком в памяти не держится.
+ * Лимиты: IG_UPLOAD_MAX_KB (по умолчанию 20 МБ — больше Bot API всё равно не отдаёт) и IG_UPLOAD_MAX_LINES
+ * (по умолчанию 2 млн строк). Бинарные файлы (архивы, картинки, PDF, NUL-байты в начале) и невалидный UTF-8
+ * отклоняются сразу, не дочитывая файл.
+ */
+public final class TextLines {
+    /** Превышен лимит или файл не текстовый; сообщение пригодно для показа пользователю. */
+    public static class RejectedException extends IOException {
+        public RejectedException(String message) { super(message); }
+    }
+
+    public static final long MAX_BYTES = getenvLong("IG_UPLOAD_MAX_KB", 20 * 1024) * 1024;
+    public static final long MAX_LINES = getenvLong("IG_UPLOAD_MAX_LINES", 2_000_000);
+
+    private static final int MAX_LINE_CHARS = 64 * 1024;
+    private static final int SNIFF_BYTES = 512;
+
+    private static final byte[][] BINARY_MAGIC = {
+            {'P', 'K', 3, 4},                 // zip, docx, xlsx
+            {'%', 'P', 'D', 'F'},
+            {(byte) 0x89, 'P', 'N', 'G'},
+            {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, // jpeg
+            {'G', 'I', 'F', '8'},
+            {'R', 'I', 'F', 'F'},             // webp, wav, avi
+            {0x1F, (byte) 0x8B},              // gzip
+            {'R', 'a', 'r', '!'},
+            {'7', 'z', (byte) 0xBC, (byte) 0xAF},
+            {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0}, // старые doc/xls
+    };
+
+    private TextLines() {}
+
+    /** Можно ли вообще качать файл такого размера и типа; null — можно, иначе причина отказа. */
+    public static String precheck(Long size, String mimeType) {
+        if (size != null && size > MAX_BYTES) return "файл больше " + MAX_BYTES / 1024 + " КБ";
+        if (mimeType != null && (mimeType.startsWith("image/") || mimeType.startsWith("video/") || mimeType.startsWith("audio/"))) {
+            return "это не текстовый файл (" + mimeType + ")";
+        }
+        return null;
+    }
+
+    /** Прочитать поток до конца, отдавая строки без переводов строки (\n, \r\n или \r); BOM в начале отбрасывается. */
+    public static void forEach(InputStream in, Consumer<String> sink) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(new Limited(in, MAX_BYTES), 16 * 1024);
+        sniff(buffered);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            forEach(new InputStreamReader(buffered, decoder), sink);
+        } catch (CharacterCodingException e) {
+            throw new RejectedException("файл не в кодировке UTF-8");
+        }
+    }
+
+    /** То же для уже декодированного текста (например, списка, присланного сообщением). */
+    public static void forEach(Reader reader, Consumer<String> sink) throws IOException {
+        char[] buf = new char[8192];
+        StringBuilder line = new StringBuilder(64);
+        long lines = 0;
+        boolean first = true;
+        boolean afterCr = false;
+        int n;
+        while ((n = reader.read(buf)) > 0) {
+            int start = 0;
+            if (first && buf[0] == '\uFEFF') start = 1;
+            first = false;
+            for (int i = start; i < n; i++) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    if (c == '\n' && afterCr) { afterCr = false; continue; } // вторая половина \r\n
+                    afterCr = c == '\r';
+                    if (++lines > MAX_LINES) throw new RejectedException("в файле больше " + MAX_LINES + " строк");
+                    sink.accept(line.toString());
+                    line.setLength(0);
+                    continue;
+                }
+                afterCr = false;
+                if (line.length() >= MAX_LINE_CHARS) throw new RejectedException("слишком длинная строка в файле");
+                line.append(c);
+            }
+        }
+        if (!line.isEmpty()) {
+            if (++lines > MAX_LINES) throw new RejectedException("в файле больше " + MAX_LINES + " строк");
+            sink.accept(line.toString());
+        }
+    }
+
+    // Смотрим только начало файла: сигнатуры известных бинарных форматов и NUL-байты
+    private static void sniff(BufferedInputStream in) throws IOException {
+        in.mark(SNIFF_BYTES);
+        byte[] head = in.readNBytes(SNIFF_BYTES);
+        in.reset();
+        for (byte[] magic : BINARY_MAGIC) {
+            if (startsWith(head, magic)) throw new RejectedException("это не текстовый файл");
+        }
+        for (byte b : head) {
+            if (b == 0) throw new RejectedException("это не текстовый файл");
+        }
+    }
+
+    private static boolean startsWith(byte[] head, byte[] magic) {
+        if (head.length < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) if (head[i] != magic[i]) return false;
+        return true;
+    }
+
+    // Обрывает чтение, как только прочитано больше max байт, даже если размер заранее не был известен
+    private static class Limited extends FilterInputStream {
+        private final long max;
+        private long read;
+
+        Limited(InputStream in, long max) {
+            super(in);
+            this.max = max;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        private void count(int n) throws RejectedException {
+            read += n;
+            if (read > max) throw new RejectedException("файл больше " + max / 1024 + " КБ");
+        }
+    }
+
+    private static long getenvLong(String name, long def) {
+        try {
+            String v = System.getenv(name);
+            return v == null || v.isBlank() ? def : Long.parseLong(v.trim());
+        } catch (Exception ignored) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.igbot.util;
+
+import java.text.Normalizer;
+
+/**
+ * Единая нормализация и проверка Instagram usernames: строчные a-z, цифры, точка и подчёркивание, до 30 символов.
+ * Всё делается одним проходом по символам без регулярных выражений; уже нормализованная строка
+ * возвращается как есть, без копирования. NFKC (полноширинные буквы, лигатуры и т.п.) применяется
+ * только если во входе есть не-ASCII символы.
+ */
+public final class UsernameCodec {
+    public static final int MAX_LENGTH = 30;
+
+    private static final String IG_HOST = "instagram.com/";
+
+    private UsernameCodec() {}
+
+    /** Оставить только допустимые символы (в нижнем регистре); пустая строка, если ничего не осталось. */
+    public static String normalize(String s) {
+        if (s == null) return "";
+        return clean(s, 0, s.length());
+    }
+
+    /**
+     * Username из пользовательского ввода: "@name", "name" или ссылка вида https://instagram.com/name/?hl=ru.
+     * Пустая строка, если ничего не осталось.
+     */
+    public static String fromInput(String s) {
+        if (s == null) return "";
+        int from = 0, to = s.length();
+        int host = indexOfIgnoreCase(s, IG_HOST);
+        if (host >= 0) {
+            from = host + IG_HOST.length();
+            to = endOfSegment(s, from, to);
+        }
+        return clean(s, from, to);
+    }
+
+    /** Username из href ссылки на профиль (/name/, https://www.instagram.com/name/); null для служебных путей. */
+    public static String fromHref(String href) {
+        if (href == null) return null;
+        int from = 0, to = href.length();
+        if (href.startsWith("https://www.instagram.com/")) from = "https://www.instagram.com/".length();
+        else if (href.startsWith("https://instagram.com/")) from = "https://instagram.com/".length();
+        if (from < to && href.charAt(from) == '/') from++;
+        to = endOfSegment(href, from, to);
+        String user = clean(href, from, to);
+        if (user.isEmpty() || user.length() > MAX_LENGTH || "p".equals(user) || "accounts".equals(user)) return null;
+        return user;
+    }
+
+    /** Username из атрибута (data-username и т.п.); null, если ничего не осталось. */
+    public static String fromAttr(String v) {
+        if (v == null) return null;
+        String user = clean(v, 0, v.length());
+        return user.isEmpty() ? null : user;
+    }
+
+    /** Первое слово из допустимых символов длиной от 2 в alt картинки ("Фото профиля name"); не длиннее 30. */
+    public static String fromAlt(String alt) {
+        if (alt == null) return null;
+        int n = alt.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && lowerAllowed(alt.charAt(i)) == 0) i++;
+            int start = i;
+            while (i < n && lowerAllowed(alt.charAt(i)) != 0) i++;
+            if (i - start >= 2) return lowerRun(alt, start, Math.min(i, start + MAX_LENGTH));
+        }
+        return null;
+    }
+
+    /** Username из короткого текста строки списка ("@name"); null для длинного текста или неподходящей длины. */
+    public static String fromText(String t) {
+        if (t == null) return null;
+        int from = 0, to = t.length();
+        while (from < to && t.charAt(from) <= ' ') from++;
+        while (to > from && t.charAt(to - 1) <= ' ') to--;
+        // quick filter to avoid huge text blobs
+        if (to - from > 40) return null;
+        String user = clean(t, from, to);
+        return user.length() >= 2 && user.length() <= MAX_LENGTH ? user : null;
+    }
+
+    /** Строка уже является нормализованным username. */
+    public static boolean isValid(String s) {
+        if (s == null || s.isEmpty() || s.length() > MAX_LENGTH) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (!isAllowed(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAllowed(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '_';
+    }
+
+    // Символ в нижнем регистре, если он допустим, иначе 0
+    private static char lowerAllowed(char c) {
+        if (c >= 'A' && c <= 'Z') return (char) (c + ('a' - 'A'));
+        if (c < 0x80) return isAllowed(c) ? c : 0;
+        char l = Character.toLowerCase(c); // например, знак Кельвина → k
+        return isAllowed(l) ? l : 0;
+    }
+
+    private static String lowerRun(String s, int from, int to) {
+        boolean same = from == 0 && to == s.length();
+        for (int i = from; same && i < to; i++) same = s.charAt(i) == lowerAllowed(s.charAt(i));
+        if (same) return s;
+        char[] out = new char[to - from];
+        for (int i = from; i < to; i++) out[i - from] = lowerAllowed(s.charAt(i));
+        return new String(out);
+    }
+
+    private static String clean(String s, int from, int to) {
+        boolean same = from == 0 && to == s.length();
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return cleanUnicode(s.substring(from, to));
+            if (same && !isAllowed(c)) same = false;
+        }
+        if (same) return s;
+        char[] out = new char[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char l = lowerAllowed(s.charAt(i));
+            if (l != 0) out[n++] = l;
+        }
+        return new String(out, 0, n);
+    }
+
+    // Медленный путь: только для входа с не-ASCII символами
+    private static String cleanUnicode(String s) {
+        String t = s;
+        try { t = Normalizer.normalize(t, Normalizer.Form.NFKC); } catch (Exception ignored) {}
+        StringBuilder sb = new StringBuilder(t.length());
+        for (int i = 0; i < t.length(); i++) {
+            char l = lowerAllowed(t.charAt(i));
+            if (l != 0) sb.append(l);
+        }
+        return sb.toString();
+    }
+
+    private static int endOfSegment(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '/' || c == '?' || c == '#') return i;
+        }
+        return to;
+    }
+
+    private static int indexOfIgnoreCase(String s, String needle) {
+        for (int i = 0, last = s.length() - needle.length(); i <= last; i++) {
+            if (s.regionMatches(true, i, needle, 0, needle.length())) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.igbot.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Неизменяемое множество нормализованных usernames в компактном виде: имена отсортированы и лежат
+ * в одном byte[] с front coding — каждое хранит только длину общего префикса с предыдущим и свой хвост.
+ * Каждое BLOCK-е имя записано целиком, по этим опорным именам contains ищет блок бинарным поиском
+ * и дальше просматривает не больше BLOCK записей. Строки создаются только при обходе.
+ * Имена ASCII (см. {@link UsernameCodec}), поэтому порядок байтов совпадает с порядком строк.
+ */
+public final class UsernameSet extends AbstractSet<String> {
+    private static final int BLOCK = 16;
+    private static final int MAX_NAME = 255; // длина хранится одним байтом; реальные usernames не длиннее 30
+
+    private static final UsernameSet EMPTY = new UsernameSet(new byte[0], new int[0], 0);
+
+    private final byte[] data;
+    private final int[] blocks; // смещение начала каждого блока в data
+    private final int size;
+
+    private UsernameSet(byte[] data, int[] blocks, int size) {
+        this.data = data;
+        this.blocks = blocks;
+        this.size = size;
+    }
+
+    /** Нормализовать, отсортировать и упаковать; пустые и повторяющиеся имена отбрасываются. */
+    public static UsernameSet of(Collection<String> names) {
+        if (names instanceof UsernameSet u) return u;
+        String[] arr = new String[names.size()];
+        int n = 0;
+        for (String s : names) {
+            String u = UsernameCodec.normalize(s);
+            if (!u.isEmpty() && u.length() <= MAX_NAME) arr[n++] = u;
+        }
+        Arrays.sort(arr, 0, n);
+        return pack(arr, n);
+    }
+
+    private static UsernameSet pack(String[] sorted, int n) {
+        if (n == 0) return EMPTY;
+        byte[] buf = new byte[Math.max(64, n * 8)];
+        int[] blocks = new int[(n + BLOCK - 1) / BLOCK];
+        byte[] prev = new byte[0];
+        int pos = 0, count = 0;
+        for (int k = 0; k < n; k++) {
+            byte[] cur = sorted[k].getBytes(StandardCharsets.US_ASCII);
+            if (count > 0 && Arrays.equals(cur, prev)) continue;
+            if (buf.length - pos < cur.length + 2) buf = Arrays.copyOf(buf, Math.max(buf.length * 3 / 2, pos + cur.length + 2));
+            if (count % BLOCK == 0) {
+                blocks[count / BLOCK] = pos;
+                buf[pos++] = (byte) cur.length;
+                System.arraycopy(cur, 0, buf, pos, cur.length);
+                pos += cur.length;
+            } else {
+                int shared = Arrays.mismatch(prev, cur);
+                if (shared < 0) shared = cur.length;
+                buf[pos++] = (byte) shared;
+                buf[pos++] = (byte) (cur.length - shared);
+                System.arraycopy(cur, shared, buf, pos, cur.length - shared);
+                pos += cur.length - shared;
+            }
+            prev = cur;
+            count++;
+        }
+        return new UsernameSet(Arrays.copyOf(buf, pos), Arrays.copyOf(blocks, (count + BLOCK - 1) / BLOCK), count);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String key) || size == 0) return false;
+        // Последний блок, опорное имя которого не больше ключа
+        int lo = 0, hi = blocks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            int p = blocks[mid];
+            if (compare(data, p + 1, data[p] & 0xFF, key) <= 0) lo = mid;
+            else hi = mid - 1;
+        }
+        byte[] cur = new byte[MAX_NAME];
+        int pos = blocks[lo];
+        int len = data[pos] & 0xFF;
+        System.arraycopy(data, pos + 1, cur, 0, len);
+        pos += 1 + len;
+        int end = Math.min(size, (lo + 1) * BLOCK);
+        for (int k = lo * BLOCK; ; ) {
+            int cmp = compare(cur, 0, len, key);
+            if (cmp == 0) return true;
+            if (cmp > 0 || ++k >= end) return false;
+            int shared = data[pos] & 0xFF, tail = data[pos + 1] & 0xFF;
+            System.arraycopy(data, pos + 2, cur, shared, tail);
+            len = shared + tail;
+            pos += 2 + tail;
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private final byte[] cur = new byte[MAX_NAME];
+            private int len;
+            private int pos;
+            private int k;
+
+            @Override
+            public boolean hasNext() {
+                return k < size;
+            }
+
+            @Override
+            public String next() {
+                if (k >= size) throw new NoSuchElementException();
+                if (k % BLOCK == 0) {
+                    len = data[pos] & 0xFF;
+                    System.arraycopy(data, pos + 1, cur, 0, len);
+                    pos += 1 + len;
+                } else {
+                    int shared = data[pos] & 0xFF, tail = data[pos + 1] & 0xFF;
+                    System.arraycopy(data, pos + 2, cur, shared, tail);
+                    len = shared + tail;
+                    pos += 2 + tail;
+                }
+                k++;
+                return new String(cur, 0, len, StandardCharsets.US_ASCII);
+            }
+        };
+    }
+
+    /** Записать в упакованном виде (для выгрузки на диск). */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static UsernameSet readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        int length = in.readInt();
+        if (size < 0 || length < 0 || length > (long) size * (MAX_NAME + 2)) throw new IOException("Повреждённый список usernames");
+        byte[] data = new byte[length];
+        in.readFully(data);
+        // Смещения блоков не хранятся — восстанавливаются одним проходом
+        int[] blocks = new int[(size + BLOCK - 1) / BLOCK];
+        int pos = 0;
+        for (int k = 0; k < size; k++) {
+            if (pos >= length) throw new IOException("Повреждённый список usernames");
+            if (k % BLOCK == 0) {
+                blocks[k / BLOCK] = pos;
+                pos += 1 + (data[pos] & 0xFF);
+            } else {
+                if (pos + 1 >= length) throw new IOException("Повреждённый список usernames");
+                pos += 2 + (data[pos + 1] & 0xFF);
+            }
+        }
+        if (pos != length) throw new IOException("Повреждённый список usernames");
+        return size == 0 ? EMPTY : new UsernameSet(data, blocks, size);
+    }
+
+    // Сравнение ASCII-байтов с ключом без создания строки
+    private static int compare(byte[] b, int off, int len, String key) {
+        int n = Math.min(len, key.length());
+        for (int i = 0; i < n; i++) {
+            int d = (b[off + i] & 0xFF) - key.charAt(i);
+            if (d != 0) return d;
+        }
+        return len - key.length();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.igbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Нагрузка на почтовые ящики: 1000 чатов, апдейты от нескольких "слушателей" вперемешку.
+ * Проверяет порядок и отсутствие параллелизма внутри чата, что все апдейты обработаны и карта ящиков
+ * опустела; пропускная способность печатается в апдейтах в секунду.
+ */
+class ChatDispatcherLoadTest {
+    private static final int CHATS = 1_000;
+    private static final int PRODUCERS = 4;
+
+    // Обработчик ждёт, как на bot.execute или скачивании файла
+    @Test
+    void ioBoundUpdatesFromThousandChats() throws Exception {
+        int perChat = 20;
+        long ioMs = 2;
+        double rate = run(perChat, () -> sleep(ioMs));
+        // Прежний цикл по апдейтам в одном потоке упирается в сумму ожиданий
+        double sequential = 1000.0 / ioMs;
+        System.out.printf(Locale.ROOT, "I/O %d мс: %.0f апдейтов/с против ~%.0f в одном потоке%n", ioMs, rate, sequential);
+        assertTrue(rate > sequential * 5, "ящики должны обрабатывать чаты параллельно: " + rate);
+    }
+
+    // Пустой обработчик: накладные расходы самого диспетчера
+    @Test
+    void dispatcherOverheadWithThousandChats() throws Exception {
+        double rate = run(200, () -> {});
+        System.out.printf(Locale.ROOT, "без работы: %.0f апдейтов/с%n", rate);
+    }
+
+    private static double run(int perChat, Runnable work) throws Exception {
+        ChatDispatcher dispatcher = new ChatDispatcher();
+        int[] next = new int[CHATS];             // трогается только из ящика своего чата
+        AtomicInteger[] inFlight = new AtomicInteger[CHATS];
+        for (int c = 0; c < CHATS; c++) inFlight[c] = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(CHATS * perChat);
+
+        // Каждый слушатель отвечает за свои чаты и шлёт их апдейты по порядку, чередуя чаты
+        List<Thread> producers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int from = p;
+            producers.add(Thread.ofPlatform().start(() -> {
+                for (int seq = 0; seq < perChat; seq++) {
+                    for (int c = from; c < CHATS; c += PRODUCERS) {
+                        int chat = c, expected = seq;
+                        dispatcher.post(chat, () -> {
+                            if (inFlight[chat].incrementAndGet() != 1) errors.incrementAndGet();
+                            if (next[chat] != expected) errors.incrementAndGet();
+                            next[chat] = expected + 1;
+                            work.run();
+                            inFlight[chat].decrementAndGet();
+                            done.countDown();
+                        });
+                    }
+                }
+            }));
+        }
+        for (Thread t : producers) t.join();
+        assertTrue(done.await(60, TimeUnit.SECONDS), "не все апдейты обработаны: осталось " + done.getCount());
+        double rate = CHATS * perChat / ((System.nanoTime() - start) / 1e9);
+
+        assertEquals(0, errors.get(), "нарушен порядок или параллелизм внутри чата");
+        for (int c = 0; c < CHATS; c++) assertEquals(perChat, next[c]);
+        // Ящик снимается сразу после последнего действия, но чуть позже countDown
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (dispatcher.mailboxCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, dispatcher.mailboxCount());
+        dispatcher.shutdown();
+        return rate;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.igbot;
+
+import com.example.igbot.util.UsernameSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MutualsServiceTest {
+
+    @Test
+    void splitsIntoThreeSortedLists() {
+        Set<String> followers = new HashSet<>(List.of("carol", "alice", "dave"));
+        Set<String> following = new HashSet<>(List.of("bob", "alice", "erin", "carol"));
+        MutualsService.Result r = MutualsService.compute(followers, following);
+        assertEquals(List.of("alice", "carol"), r.mutuals);
+        assertEquals(List.of("bob", "erin"), r.notFollowingBack);
+        assertEquals(List.of("dave"), r.notFollowedByYou);
+    }
+
+    @Test
+    void normalizesSpellingsBeforeMerging() {
+        Set<String> followers = new HashSet<>(List.of("@Alice", "alice", " BOB ", ""));
+        Set<String> following = new HashSet<>(List.of("ALICE", "carol"));
+        MutualsService.Result r = MutualsService.compute(followers, following);
+        assertEquals(List.of("alice"), r.mutuals);
+        assertEquals(List.of("carol"), r.notFollowingBack);
+        assertEquals(List.of("bob"), r.notFollowedByYou);
+    }
+
+    @Test
+    void emptyListsGiveEmptyResult() {
+        MutualsService.Result r = MutualsService.compute(Set.of(), Set.of());
+        assertTrue(r.mutuals.isEmpty() && r.notFollowingBack.isEmpty() && r.notFollowedByYou.isEmpty());
+        r = MutualsService.compute(Set.of("a1"), Set.of());
+        assertEquals(List.of("a1"), r.notFollowedByYou);
+    }
+
+    @Test
+    void matchesNaiveSetOperations() {
+        Random rnd = new Random(11);
+        for (int round = 0; round < 20; round++) {
+            Set<String> followers = randomNames(rnd, rnd.nextInt(2_000), 3_000);
+            Set<String> following = randomNames(rnd, rnd.nextInt(2_000), 3_000);
+            MutualsService.Result r = MutualsService.compute(followers, following);
+            assertEquals(expected(followers, following), List.of(r.mutuals, r.notFollowingBack, r.notFollowedByYou));
+            // Готовые UsernameSet идут без повторной нормализации и сортировки — результат тот же
+            MutualsService.Result packed = MutualsService.compute(UsernameSet.of(followers), UsernameSet.of(following));
+            assertEquals(List.of(r.mutuals, r.notFollowingBack, r.notFollowedByYou),
+                    List.of(packed.mutuals, packed.notFollowingBack, packed.notFollowedByYou));
+        }
+    }
+
+    @Test
+    void parallelMergeMatchesSequential() {
+        // Достаточно имён, чтобы список followers разбился на несколько кусков
+        Random rnd = new Random(5);
+        Set<String> followers = randomNames(rnd, 300_000, 600_000);
+        Set<String> following = randomNames(rnd, 200_000, 600_000);
+        MutualsService.Result parallel = MutualsService.computeParallel(followers, following);
+        assertEquals(expected(followers, following), List.of(parallel.mutuals, parallel.notFollowingBack, parallel.notFollowedByYou));
+    }
+
+    private static List<List<String>> expected(Set<String> followers, Set<String> following) {
+        TreeSet<String> mutuals = new TreeSet<>(followers);
+        mutuals.retainAll(following);
+        TreeSet<String> notBack = new TreeSet<>(following);
+        notBack.removeAll(followers);
+        TreeSet<String> notByYou = new TreeSet<>(followers);
+        notByYou.removeAll(following);
+        return List.of(new ArrayList<>(mutuals), new ArrayList<>(notBack), new ArrayList<>(notByYou));
+    }
+
+    // Уже нормализованные имена из общего пространства, чтобы списки пересекались
+    private static Set<String> randomNames(Random rnd, int n, int space) {
+        Set<String> out = new HashSet<>();
+        while (out.size() < n) out.add("u" + rnd.nextInt(space));
+        return out;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.igbot;
+
+import com.example.igbot.playwright.IgPlaywrightScraper.Pair;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotStoreTest {
+    private static final long CHAT = 42;
+    private static final long OTHER_CHAT = 43;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void diffNeedsTwoSnapshots() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        assertNull(store.diff(CHAT, "acc", -1));
+        save(store, pair(names("a", "b"), names("x")));
+        assertNull(store.diff(CHAT, "acc", -1));
+        assertEquals(names("a", "b"), store.loadLatest(CHAT, "acc").followers);
+    }
+
+    @Test
+    void diffAgainstPreviousSnapshot() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        save(store, pair(names("a", "b", "c"), names("x", "y")));
+        save(store, pair(names("a", "c", "d"), names("x", "z")));
+        SnapshotStore.Diff d = store.diff(CHAT, "acc", -1);
+        assertEquals(List.of("d"), d.gainedFollowers);
+        assertEquals(List.of("b"), d.lostFollowers);
+        assertEquals(List.of("z"), d.gainedFollowing);
+        assertEquals(List.of("y"), d.lostFollowing);
+        assertEquals(2, d.snapshots);
+    }
+
+    @Test
+    void changesThatCancelOutWithinPeriodAreNotReported() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        long start = save(store, pair(names("a", "b"), names()));
+        save(store, pair(names("a"), names()));            // b отписался
+        save(store, pair(names("a", "b", "c"), names()));  // и вернулся
+        SnapshotStore.Diff d = store.diff(CHAT, "acc", start);
+        assertEquals(List.of("c"), d.gainedFollowers);
+        assertTrue(d.lostFollowers.isEmpty());
+        assertEquals(3, d.snapshots);
+    }
+
+    @Test
+    void sinceSelectsLastSnapshotNotLaterThanIt() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        save(store, pair(names("a"), names()));
+        long second = save(store, pair(names("a", "b"), names()));
+        save(store, pair(names("a", "b", "c"), names()));
+        SnapshotStore.Diff d = store.diff(CHAT, "acc", second);
+        assertEquals(List.of("c"), d.gainedFollowers);
+        assertEquals(2, d.snapshots);
+        // Раньше начала истории — от самого первого снимка
+        assertEquals(List.of("b", "c"), store.diff(CHAT, "acc", 0).gainedFollowers);
+    }
+
+    @Test
+    void partialScrapesAreKeptOutOfLatestAndDiff() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        save(store, pair(names("a", "b", "c"), names("x")));
+        save(store, new Pair(names("a"), names(), false));
+        assertEquals(names("a", "b", "c"), store.loadLatest(CHAT, "acc").followers);
+        assertNull(store.diff(CHAT, "acc", -1));
+
+        save(store, pair(names("a", "b", "c", "d"), names("x")));
+        SnapshotStore.Diff d = store.diff(CHAT, "acc", -1);
+        assertEquals(List.of("d"), d.gainedFollowers);
+        assertTrue(d.lostFollowers.isEmpty());
+        assertTrue(d.lostFollowing.isEmpty());
+    }
+
+    @Test
+    void checkpointsInPlaceOfDeltasKeepDiffExact() throws Exception {
+        // Полный снимок каждые 3 сбора и при большой смене состава — diff всё равно должен сходиться
+        SnapshotStore store = new SnapshotStore(dir, 3);
+        Random rnd = new Random(3);
+        List<Set<String>> history = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        Set<String> current = new TreeSet<>();
+        for (int i = 0; i < 25; i++) {
+            if (i % 6 == 5) current.clear();
+            for (int k = 0; k < 5; k++) current.add("u" + rnd.nextInt(200));
+            if (current.size() > 3 && rnd.nextBoolean()) current.remove(current.iterator().next());
+            // Новый экземпляр читает файл заново, без состояния в памяти
+            if (i % 4 == 3) store = new SnapshotStore(dir, 3);
+            times.add(save(store, pair(new TreeSet<>(current), names())));
+            history.add(new TreeSet<>(current));
+        }
+        Set<String> last = history.get(history.size() - 1);
+        SnapshotStore reader = new SnapshotStore(dir, 3);
+        assertEquals(last, new TreeSet<>(reader.loadLatest(CHAT, "acc").followers));
+        for (int base = 0; base < history.size() - 1; base++) {
+            SnapshotStore.Diff d = reader.diff(CHAT, "acc", times.get(base));
+            TreeSet<String> gained = new TreeSet<>(last);
+            gained.removeAll(history.get(base));
+            TreeSet<String> lost = new TreeSet<>(history.get(base));
+            lost.removeAll(last);
+            assertEquals(new ArrayList<>(gained), d.gainedFollowers, "from " + base);
+            assertEquals(new ArrayList<>(lost), d.lostFollowers, "from " + base);
+            assertEquals(history.size() - base, d.snapshots, "from " + base);
+        }
+    }
+
+    @Test
+    void tornTailIsDroppedAndOverwritten() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        save(store, pair(names("a"), names()));
+        Files.write(dir.resolve(CHAT + "_acc.snaplog"), new byte[]{0, 0, 1, 0, 'D', 7}, StandardOpenOption.APPEND);
+        SnapshotStore reopened = new SnapshotStore(dir, 20);
+        assertEquals(names("a"), reopened.loadLatest(CHAT, "acc").followers);
+        save(reopened, pair(names("a", "b"), names()));
+        assertEquals(List.of("b"), new SnapshotStore(dir, 20).diff(CHAT, "acc", -1).gainedFollowers);
+    }
+
+    @Test
+    void historyIsKeptPerChat() throws Exception {
+        SnapshotStore store = new SnapshotStore(dir, 20);
+        save(store, pair(names("a"), names()));
+        save(store, pair(names("a", "b"), names()));
+        assertNull(store.loadLatest(OTHER_CHAT, "acc"));
+        assertNull(store.diff(OTHER_CHAT, "acc", -1));
+        // Свой сбор другого чата начинает его собственную историю
+        store.save(OTHER_CHAT, "acc", pair(names("z"), names()));
+        assertEquals(names("z"), store.loadLatest(OTHER_CHAT, "acc").followers);
+        assertEquals(names("a", "b"), store.loadLatest(CHAT, "acc").followers);
+        assertEquals(List.of("b"), store.diff(CHAT, "acc", -1).gainedFollowers);
+    }
+
+    // Время сохранения; снимки в одну миллисекунду не различались бы по времени
+    private static long save(SnapshotStore store, Pair p) throws InterruptedException {
+        store.save(CHAT, "acc", p);
+        long t = System.currentTimeMillis();
+        Thread.sleep(2);
+        return t;
+    }
+
+    private static Pair pair(Set<String> followers, Set<String> following) {
+        return new Pair(followers, following);
+    }
+
+    private static Set<String> names(String... n) {
+        return new TreeSet<>(Arrays.asList(n));
+    }
+}
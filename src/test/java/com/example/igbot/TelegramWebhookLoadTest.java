@@ -0,0 +1,147 @@
+package com.example.igbot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Поддельный Telegram шлёт JSON апдейтов на webhook так быстро, как сервер принимает, с большим числом
+ * соединений, чем maxConcurrent. Апдейты идут через ChatDispatcher, как в боте; проверяется, что каждый
+ * дошёл ровно один раз, а 503 (перегрузка) повторяются клиентом, как это делает Telegram.
+ */
+class TelegramWebhookLoadTest {
+    private static final String SECRET = "load-test-secret";
+    private static final String PATH = "/tg";
+
+    private TelegramWebhookServer server;
+    private final ChatDispatcher dispatcher = new ChatDispatcher();
+
+    @AfterEach
+    void stop() {
+        if (server != null) server.stop();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void acceptsEveryUpdateOnceUnderLoad() throws Exception {
+        int updates = 5_000, chats = 500, clients = 64, maxConcurrent = 40;
+        AtomicIntegerArray seen = new AtomicIntegerArray(updates);
+        CountDownLatch handled = new CountDownLatch(updates);
+        server = TelegramWebhookServer.start(0, PATH, SECRET, maxConcurrent, u ->
+                dispatcher.post(u.message().chat().id(), () -> {
+                    seen.incrementAndGet(u.updateId());
+                    handled.countDown();
+                }));
+        URI uri = URI.create("http://127.0.0.1:" + server.port() + PATH);
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        AtomicInteger nextId = new AtomicInteger();
+        AtomicInteger retried = new AtomicInteger();
+        List<Future<?>> senders = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                senders.add(pool.submit(() -> {
+                    int id;
+                    while ((id = nextId.getAndIncrement()) < updates) {
+                        HttpRequest req = post(uri, SECRET, updateJson(id, 1_000_000L + id % chats));
+                        int status;
+                        while ((status = http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode()) == 503) {
+                            retried.incrementAndGet();
+                            Thread.sleep(1);
+                        }
+                        assertEquals(200, status);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : senders) f.get(120, TimeUnit.SECONDS);
+        }
+        double acceptRate = updates / ((System.nanoTime() - start) / 1e9);
+        assertTrue(handled.await(30, TimeUnit.SECONDS), "не дошло апдейтов: " + handled.getCount());
+        double handleRate = updates / ((System.nanoTime() - start) / 1e9);
+        for (int i = 0; i < updates; i++) assertEquals(1, seen.get(i), "update " + i);
+        System.out.printf(Locale.ROOT, "webhook: %d апдейтов, %d клиентов: принято %.0f/с, обработано %.0f/с, повторов после 503: %d%n",
+                updates, clients, acceptRate, handleRate, retried.get());
+    }
+
+    @Test
+    void rejectsWrongSecretAndMethod() throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        server = TelegramWebhookServer.start(0, PATH, SECRET, 4, u -> delivered.incrementAndGet());
+        URI uri = URI.create("http://127.0.0.1:" + server.port() + PATH);
+        HttpClient http = HttpClient.newHttpClient();
+
+        assertEquals(401, http.send(post(uri, "wrong", updateJson(1, 1)), HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertEquals(400, http.send(post(uri, SECRET, "{not json"), HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertEquals(405, http.send(HttpRequest.newBuilder(uri).GET()
+                .header("X-Telegram-Bot-Api-Secret-Token", SECRET).build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertEquals(0, delivered.get());
+        assertEquals(200, http.send(post(uri, SECRET, updateJson(2, 1)), HttpResponse.BodyHandlers.discarding()).statusCode());
+        // 200 уходит до передачи апдейта дальше
+        waitUntil(() -> delivered.get() == 1);
+    }
+
+    @Test
+    void overflowGets503UntilPermitFrees() throws Exception {
+        // Обработчик держит разрешение, пока апдейт не передан дальше: два зависших занимают оба места
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = new CountDownLatch(2);
+        server = TelegramWebhookServer.start(0, PATH, SECRET, 2, u -> {
+            entered.countDown();
+            try { release.await(); } catch (InterruptedException ignored) {}
+        });
+        URI uri = URI.create("http://127.0.0.1:" + server.port() + PATH);
+        HttpClient http = HttpClient.newHttpClient();
+
+        List<CompletableFuture<HttpResponse<Void>>> held = List.of(
+                http.sendAsync(post(uri, SECRET, updateJson(1, 1)), HttpResponse.BodyHandlers.discarding()),
+                http.sendAsync(post(uri, SECRET, updateJson(2, 2)), HttpResponse.BodyHandlers.discarding()));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        assertEquals(503, http.send(post(uri, SECRET, updateJson(3, 3)), HttpResponse.BodyHandlers.discarding()).statusCode());
+        release.countDown();
+        for (CompletableFuture<HttpResponse<Void>> f : held) assertEquals(200, f.get(10, TimeUnit.SECONDS).statusCode());
+        // Разрешения освобождаются уже после ответа — ждём, пока запрос снова пройдёт
+        waitUntil(() -> http.send(post(uri, SECRET, updateJson(4, 4)), HttpResponse.BodyHandlers.discarding()).statusCode() == 200);
+    }
+
+    private interface Check {
+        boolean ok() throws Exception;
+    }
+
+    private static void waitUntil(Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!check.ok()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 10 с");
+            Thread.sleep(5);
+        }
+    }
+
+    private static HttpRequest post(URI uri, String secret, String body) {
+        return HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .header("X-Telegram-Bot-Api-Secret-Token", secret)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    // Апдейт в том виде, в каком его присылает Telegram для текстового сообщения
+    private static String updateJson(int updateId, long chatId) {
+        return "{\"update_id\":" + updateId + ",\"message\":{\"message_id\":" + (updateId + 1)
+                + ",\"from\":{\"id\":" + chatId + ",\"is_bot\":false,\"first_name\":\"Load\"}"
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}"
+                + ",\"date\":1700000000,\"text\":\"/scrape user" + updateId + "\"}}";
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.igbot.bench;
+
+import com.example.igbot.MutualsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Разбиение на взаимных и расхождения: текущий {@link MutualsService#compute} (сортировка и слияние массивов)
+ * против прежней версии на TreeSet с тремя проходами contains + sorted. Оба списка по {@code size} имён,
+ * пересекаются наполовину; на 5M нужен -Xmx около 4 ГБ.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class MutualsBenchmark {
+    @Param({"1000", "100000", "5000000"})
+    public int size;
+
+    private Set<String> followers;
+    private Set<String> following;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        List<String> pool = new ArrayList<>(size * 3 / 2);
+        Set<String> seen = new HashSet<>();
+        while (pool.size() < size * 3 / 2) {
+            String n = Names.realistic(rnd);
+            if (seen.add(n)) pool.add(n);
+        }
+        seen = null;
+        // Первая треть — только followers, вторая — оба списка, последняя — только following
+        int third = size / 2;
+        followers = new HashSet<>(pool.subList(0, 2 * third));
+        following = new HashSet<>(pool.subList(third, pool.size()));
+    }
+
+    @Benchmark
+    public MutualsService.Result current() {
+        return MutualsService.compute(followers, following);
+    }
+
+    @Benchmark
+    public MutualsService.Result legacyTreeSet() {
+        return legacyCompute(followers, following);
+    }
+
+    // MutualsService.compute до перехода на слияние отсортированных массивов
+    static MutualsService.Result legacyCompute(Set<String> followers, Set<String> following) {
+        Set<String> followersCI = followers.stream()
+                .map(UsernameCodecBenchmark::legacyMutualsNormalize)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
+        Set<String> followingCI = following.stream()
+                .map(UsernameCodecBenchmark::legacyMutualsNormalize)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toCollection(() -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)));
+
+        List<String> mutuals = followersCI.stream().filter(followingCI::contains).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
+        List<String> notFollowingBack = followingCI.stream().filter(u -> !followersCI.contains(u)).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
+        List<String> notFollowedByYou = followersCI.stream().filter(u -> !followingCI.contains(u)).sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
+        return new MutualsService.Result(mutuals, notFollowingBack, notFollowedByYou);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.igbot.bench;
+
+import java.util.Random;
+
+/** Генератор usernames, похожих на реальные: общие префиксы, точки, подчёркивания и цифры в хвосте. */
+final class Names {
+    private static final String[] PREFIXES = {"the.", "its", "real", "official", "mr", "ms", "dj", "photo", "art", "i.am."};
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    private Names() {}
+
+    static String realistic(Random rnd) {
+        StringBuilder sb = new StringBuilder(24);
+        if (rnd.nextInt(4) == 0) sb.append(PREFIXES[rnd.nextInt(PREFIXES.length)]);
+        int len = 4 + rnd.nextInt(10);
+        for (int i = 0; i < len; i++) sb.append(LETTERS.charAt(rnd.nextInt(LETTERS.length())));
+        switch (rnd.nextInt(4)) {
+            case 0 -> sb.append('_').append(rnd.nextInt(1000));
+            case 1 -> sb.append('.').append(LETTERS.charAt(rnd.nextInt(26)));
+            case 2 -> sb.append(rnd.nextInt(100));
+            default -> {}
+        }
+        return sb.length() > 30 ? sb.substring(0, 30) : sb.toString();
+    }
+}
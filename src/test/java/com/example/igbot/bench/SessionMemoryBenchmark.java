@@ -0,0 +1,65 @@
+package com.example.igbot.bench;
+
+import com.example.igbot.util.UsernameSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+
+/**
+ * Сколько heap держит сессия чата со 100k usernames (followers 50k + following 50k): прежние
+ * TreeSet&lt;String&gt; против {@link UsernameSet}. Размер в JMH не меряется, поэтому это обычный main:
+ * строятся {@code SESSIONS} сессий, и прирост занятого heap после полной сборки мусора делится на их число.
+ *
+ * <pre>java -cp ... com.example.igbot.bench.SessionMemoryBenchmark</pre>
+ */
+public class SessionMemoryBenchmark {
+    private static final int NAMES_PER_LIST = 50_000;
+    private static final int SESSIONS = 20;
+
+    public static void main(String[] args) {
+        // Прогрев: классы загружены, JIT не добавляет своих аллокаций в замер
+        measure("warmup", true, 2);
+        long tree = measure("TreeSet", true, SESSIONS);
+        long packed = measure("UsernameSet", false, SESSIONS);
+        System.out.printf(Locale.ROOT, "UsernameSet / TreeSet: %.1fx меньше%n", (double) tree / packed);
+    }
+
+    private static long measure(String label, boolean treeSet, int sessions) {
+        Random rnd = new Random(1);
+        long before = usedAfterGc();
+        List<Object> held = new ArrayList<>(sessions * 2);
+        for (int s = 0; s < sessions; s++) {
+            held.add(list(rnd, treeSet));
+            held.add(list(rnd, treeSet));
+        }
+        long after = usedAfterGc();
+        long perSession = (after - before) / sessions;
+        if (!label.equals("warmup")) {
+            System.out.printf(Locale.ROOT, "%-12s %8.2f МБ на сессию, %5.1f байт на имя%n",
+                    label, perSession / 1048576.0, perSession / (2.0 * NAMES_PER_LIST));
+        }
+        if (held.size() != sessions * 2) throw new AssertionError(); // держим сессии живыми до замера
+        return perSession;
+    }
+
+    private static Set<String> list(Random rnd, boolean treeSet) {
+        List<String> names = new ArrayList<>(NAMES_PER_LIST);
+        for (int i = 0; i < NAMES_PER_LIST; i++) names.add(Names.realistic(rnd));
+        if (!treeSet) return UsernameSet.of(names);
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(names);
+        return set;
+    }
+
+    private static long usedAfterGc() {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Несколько проходов: финализаторы и ссылки освобождаются не с первой сборки
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, mem.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.igbot.bench;
+
+import com.example.igbot.util.UsernameCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нормализация миллиона usernames: {@link UsernameCodec} против прежних реализаций на регулярных выражениях
+ * (MutualsService.normalize и TelegramBotService.normalizeUsername до общего кодека). Одна операция — весь
+ * миллион, поэтому время и gc.alloc.rate.norm (с -prof gc) даны сразу на миллион имён.
+ * Вход похож на реальные списки: в основном уже нормализованные имена, часть с заглавными и "@",
+ * немного полноширинных и с zero-width символами.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UsernameCodecBenchmark {
+    private static final int N = 1_000_000;
+
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        names = new String[N];
+        for (int i = 0; i < N; i++) {
+            String base = Names.realistic(rnd);
+            int kind = rnd.nextInt(100);
+            if (kind < 80) names[i] = base;                                       // уже нормализованное
+            else if (kind < 95) names[i] = "@" + base.toUpperCase(Locale.ROOT);  // ввод пользователя
+            else if (kind < 98) names[i] = base + "\u200B";                 // zero-width из копипасты
+            else names[i] = "\uFF55\uFF53\uFF45\uFF52" + base;  // полноширинные
+        }
+    }
+
+    @Benchmark
+    public long codec() {
+        long total = 0;
+        for (String s : names) total += UsernameCodec.normalize(s).length();
+        return total;
+    }
+
+    @Benchmark
+    public long legacyMutuals() {
+        long total = 0;
+        for (String s : names) total += legacyMutualsNormalize(s).length();
+        return total;
+    }
+
+    @Benchmark
+    public long legacyBot() {
+        long total = 0;
+        for (String s : names) total += legacyBotNormalize(s).length();
+        return total;
+    }
+
+    // MutualsService.normalize до UsernameCodec
+    static String legacyMutualsNormalize(String s) {
+        if (s == null) return "";
+        String t = s;
+        try { t = Normalizer.normalize(t, Normalizer.Form.NFKC); } catch (Exception ignored) {}
+        t = t.replaceAll("[\\u200B-\\u200D\\uFEFF]", "");
+        t = t.replace(" ", "");
+        if (t.startsWith("@")) t = t.substring(1);
+        t = t.toLowerCase(Locale.ROOT);
+        t = t.replaceAll("[^a-z0-9._]", "");
+        return t;
+    }
+
+    // TelegramBotService.normalizeUsername до UsernameCodec
+    static String legacyBotNormalize(String s) {
+        String t = s;
+        if (t.startsWith("@")) t = t.substring(1);
+        t = t.toLowerCase(Locale.ROOT).replace(" ", "");
+        if (t.contains("instagram.com/")) {
+            int i = t.indexOf("instagram.com/");
+            t = t.substring(i + "instagram.com/".length());
+            int q = t.indexOf('?');
+            if (q >= 0) t = t.substring(0, q);
+            t = t.replaceAll("[^a-z0-9._]", "");
+        }
+        t = t.replaceAll("[^a-z0-9._]", "");
+        return t;
+    }
+}
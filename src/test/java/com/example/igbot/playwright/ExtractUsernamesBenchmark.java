@@ -0,0 +1,108 @@
+package com.example.igbot.playwright;
+
+import com.example.igbot.util.UsernameCodec;
+import com.microsoft.playwright.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Одна итерация разбора DOM-диалога: {@link IgPlaywrightScraper#extractUsernames} (один evaluateAll)
+ * против прежнего обхода — locator(...).all() и getAttribute на каждый элемент по трём стратегиям
+ * плюс allInnerTexts. Страница — сохранённый диалог followers из test resources; свой можно подставить
+ * через IG_BENCH_DIALOG_HTML (например, scrape-*.html, который пишет IG_DEBUG=true).
+ * Число обращений к браузеру на итерацию печатается при старте. Нужен установленный Chromium.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExtractUsernamesBenchmark {
+    private Playwright playwright;
+    private Browser browser;
+    private Locator dialog;
+
+    @Setup
+    public void setup() throws Exception {
+        String html = loadHtml();
+        try {
+            playwright = Playwright.create();
+            browser = playwright.chromium().launch(new BrowserType.LaunchOptions().setHeadless(true));
+        } catch (RuntimeException e) {
+            // Playwright.create() сам пытается скачать браузер и падает без сети
+            if (playwright != null) playwright.close();
+            throw new IllegalStateException("Нужен Chromium для Playwright: java -cp <тот же classpath> com.microsoft.playwright.CLI install chromium", e);
+        }
+        Page page = browser.newPage();
+        page.setContent(html);
+        dialog = page.locator("div[role='dialog']").first();
+
+        Set<String> batch = IgPlaywrightScraper.extractUsernames(dialog);
+        Set<String> legacy = legacyExtract(dialog);
+        if (!batch.equals(legacy)) throw new IllegalStateException("Результаты расходятся: " + batch.size() + " против " + legacy.size());
+        int elements = dialog.locator("a[href]").count() + dialog.locator("*[data-username]").count() + dialog.locator("img[alt]").count();
+        System.out.printf(Locale.ROOT, "%n%d usernames; обращений к браузеру за итерацию: прежний обход %d, evaluateAll 1%n",
+                batch.size(), 3 + elements + 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (browser != null) browser.close();
+        if (playwright != null) playwright.close();
+    }
+
+    @Benchmark
+    public Set<String> batch() {
+        return IgPlaywrightScraper.extractUsernames(dialog);
+    }
+
+    @Benchmark
+    public Set<String> legacyPerElement() {
+        return legacyExtract(dialog);
+    }
+
+    // extractUsernames до перехода на один evaluateAll: all() — одно обращение, затем по одному на элемент
+    static Set<String> legacyExtract(Locator root) {
+        Set<String> out = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        try {
+            List<String> hrefs = root.locator("a[href]").all().stream()
+                    .map(el -> el.getAttribute("href")).filter(Objects::nonNull).collect(Collectors.toList());
+            for (String href : hrefs) addIfPresent(out, UsernameCodec.fromHref(href));
+        } catch (Exception ignored) {}
+        try {
+            List<String> attrs = root.locator("*[data-username]").all().stream()
+                    .map(el -> el.getAttribute("data-username")).filter(Objects::nonNull).collect(Collectors.toList());
+            for (String v : attrs) addIfPresent(out, UsernameCodec.fromAttr(v));
+        } catch (Exception ignored) {}
+        try {
+            List<String> alts = root.locator("img[alt]").all().stream()
+                    .map(el -> el.getAttribute("alt")).filter(Objects::nonNull).collect(Collectors.toList());
+            for (String alt : alts) addIfPresent(out, UsernameCodec.fromAlt(alt));
+        } catch (Exception ignored) {}
+        try {
+            for (String t : root.allInnerTexts()) addIfPresent(out, UsernameCodec.fromText(t));
+        } catch (Exception ignored) {}
+        return out;
+    }
+
+    private static void addIfPresent(Set<String> out, String user) {
+        if (user != null) out.add(user);
+    }
+
+    private static String loadHtml() throws Exception {
+        String path = System.getenv("IG_BENCH_DIALOG_HTML");
+        if (path != null && !path.isBlank()) return Files.readString(Path.of(path.trim()), StandardCharsets.UTF_8);
+        try (InputStream in = ExtractUsernamesBenchmark.class.getResourceAsStream("/bench/followers-dialog.html")) {
+            if (in == null) throw new IllegalStateException("Нет bench/followers-dialog.html в test resources");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.igbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsernameCodecTest {
+
+    @Test
+    void normalizeKeepsOnlyAllowedCharactersInLowerCase() {
+        assertEquals("john.doe_1", UsernameCodec.normalize("  @John.Doe_1 "));
+        assertEquals("", UsernameCodec.normalize("@@ !"));
+        assertEquals("", UsernameCodec.normalize(null));
+    }
+
+    @Test
+    void normalizedInputIsReturnedWithoutCopy() {
+        String s = "already.normal_1";
+        assertSame(s, UsernameCodec.normalize(s));
+    }
+
+    @Test
+    void normalizeFoldsNonAsciiThroughNfkc() {
+        // Полноширинные буквы и знак Кельвина сводятся к ASCII
+        assertEquals("abc", UsernameCodec.normalize("ＡＢＣ"));
+        assertEquals("kelvin", UsernameCodec.normalize("Kelvin"));
+        assertEquals("name", UsernameCodec.normalize("имя name"));
+    }
+
+    @Test
+    void normalizeIsIdempotent() {
+        for (String s : new String[]{"@User", "ＡＢＣ.d", "x_Y.z9", "  a b  "}) {
+            String once = UsernameCodec.normalize(s);
+            assertEquals(once, UsernameCodec.normalize(once));
+            assertTrue(once.isEmpty() || UsernameCodec.isValid(once), once);
+        }
+    }
+
+    @Test
+    void fromInputAcceptsHandlesAndProfileLinks() {
+        assertEquals("name", UsernameCodec.fromInput("@Name"));
+        assertEquals("name", UsernameCodec.fromInput("https://www.instagram.com/Name/?hl=ru"));
+        assertEquals("name", UsernameCodec.fromInput("instagram.com/name#top"));
+    }
+
+    @Test
+    void fromHrefSkipsServicePaths() {
+        assertEquals("name", UsernameCodec.fromHref("/name/"));
+        assertEquals("name", UsernameCodec.fromHref("https://instagram.com/name/"));
+        assertNull(UsernameCodec.fromHref("/p/abc123/"));
+        assertNull(UsernameCodec.fromHref("/accounts/login/"));
+        assertNull(UsernameCodec.fromHref("/" + "a".repeat(UsernameCodec.MAX_LENGTH + 1) + "/"));
+    }
+
+    @Test
+    void fromTextRejectsLongBlobsAndShortNames() {
+        assertEquals("name", UsernameCodec.fromText("  @name "));
+        assertNull(UsernameCodec.fromText("a"));
+        assertNull(UsernameCodec.fromText("x".repeat(41)));
+    }
+
+    @Test
+    void fromAltTakesFirstWord() {
+        assertEquals("name.one", UsernameCodec.fromAlt("Фото профиля name.one"));
+        assertNull(UsernameCodec.fromAlt("Фото профиля"));
+    }
+
+    @Test
+    void isValidChecksCharactersAndLength() {
+        assertTrue(UsernameCodec.isValid("a.b_c9"));
+        assertFalse(UsernameCodec.isValid("Upper"));
+        assertFalse(UsernameCodec.isValid(""));
+        assertFalse(UsernameCodec.isValid("a".repeat(UsernameCodec.MAX_LENGTH + 1)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.igbot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsernameSetTest {
+
+    @Test
+    void ofNormalizesSortsAndDropsDuplicates() {
+        UsernameSet set = UsernameSet.of(List.of("@Bob", "alice", "BOB", "", "  ", "carol.x"));
+        assertEquals(List.of("alice", "bob", "carol.x"), new ArrayList<>(set));
+        assertEquals(3, set.size());
+    }
+
+    @Test
+    void containsFindsEveryNameAcrossBlocks() {
+        List<String> names = sample(1_000, 7);
+        UsernameSet set = UsernameSet.of(names);
+        TreeSet<String> expected = new TreeSet<>(names);
+        assertEquals(expected.size(), set.size());
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        for (String n : expected) assertTrue(set.contains(n), n);
+        // Соседи по порядку, которых в множестве нет
+        for (String n : expected) {
+            assertFalse(set.contains(n + "0_missing"));
+            assertFalse(set.contains(n.substring(0, n.length() - 1) + "~"));
+        }
+        assertFalse(set.contains(""));
+        assertFalse(set.contains(42));
+    }
+
+    @Test
+    void sharedPrefixesSurviveFrontCoding() {
+        List<String> names = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < UsernameCodec.MAX_LENGTH; i++) {
+            sb.append((char) ('a' + i % 26));
+            names.add(sb.toString());
+            names.add(sb + "_");
+        }
+        UsernameSet set = UsernameSet.of(names);
+        assertEquals(new ArrayList<>(new TreeSet<>(names)), new ArrayList<>(set));
+        for (String n : names) assertTrue(set.contains(n), n);
+    }
+
+    @Test
+    void writeAndReadRoundTrip() throws IOException {
+        for (int size : new int[]{0, 1, 15, 16, 17, 1_000}) {
+            UsernameSet set = UsernameSet.of(sample(size, size));
+            UsernameSet back = roundTrip(set);
+            assertEquals(new ArrayList<>(set), new ArrayList<>(back), "size " + size);
+            for (String n : set) assertTrue(back.contains(n));
+        }
+    }
+
+    @Test
+    void readFromRejectsDamagedData() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        UsernameSet.of(sample(100, 3)).writeTo(new DataOutputStream(bytes));
+        byte[] data = bytes.toByteArray();
+
+        // Число имён больше, чем записано данных
+        byte[] tooMany = data.clone();
+        tooMany[3]++;
+        assertThrows(IOException.class, () -> UsernameSet.readFrom(new DataInputStream(new ByteArrayInputStream(tooMany))));
+
+        // Обрезанные данные
+        byte[] truncated = Arrays.copyOf(data, data.length - 5);
+        assertThrows(IOException.class, () -> UsernameSet.readFrom(new DataInputStream(new ByteArrayInputStream(truncated))));
+    }
+
+    private static UsernameSet roundTrip(UsernameSet set) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        set.writeTo(new DataOutputStream(bytes));
+        return UsernameSet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static List<String> sample(int n, long seed) {
+        Random r = new Random(seed);
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789._";
+        List<String> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int len = 3 + r.nextInt(20);
+            StringBuilder sb = new StringBuilder(len);
+            // Общие префиксы, как у реальных списков
+            sb.append(r.nextBoolean() ? "user" : "the.");
+            for (int k = 0; k < len; k++) sb.append(alphabet.charAt(r.nextInt(26 + (k == 0 ? 0 : 12))));
+            out.add(sb.toString());
+        }
+        return out;
+    }
+}